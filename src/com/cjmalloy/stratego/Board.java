@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.lang.Long;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.cjmalloy.stratego.BoardHistory;
@@ -36,7 +37,7 @@ public class Board
     public ArrayList<UndoMove> undoList = new ArrayList<UndoMove>();
 	public static final int RED  = 0;
 	public static final int BLUE = 1;
-	public static int bturn = RED;
+	public int bturn = RED;
 	public static final Spot IN_TRAY = new Spot(-1, -1);
 
 	// number of moves unknown piece must make before
@@ -55,9 +56,19 @@ public class Board
 	// correllating against all setups in the database
 	protected Piece[] setup = new Piece[121];
 	protected static final int[] dir = { -11, -1,  1, 11 };
-    protected static long[][][][][] boardHash = new long[15][8][2][82][121];
+	// boardHash[rank][state flags][moved] is made on first use
+	private static final int HASH_RANKS = 15;
+	private static final int HASH_FLAGS = 8;
+	private static final int HASH_IDS = Grid.UniqueID.BOARD + 1;
+	private static final int HASH_SLAB = HASH_IDS * 109;	// squares 12 to 120
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	private static final AtomicReferenceArray<long[][]> boardHash =
+		new AtomicReferenceArray<long[][]>(HASH_RANKS * HASH_FLAGS * 2);
+	private static long hashSeed;
 	protected static long[] depthHash = new long[40];	// MAX_DEPTH + QSMAX
-	protected static BoardHistory boardHistory = new BoardHistory();
+	protected BoardHistory boardHistory = null;
     protected int[][] knownRank = new int[2][12];   // discovered ranks
     protected int[][] allRank = new int[2][12];    // ranks in trays
 	protected int[][] suspectedRank = new int[2][12];	// guessed ranks
@@ -71,7 +82,7 @@ public class Board
 	protected static final int expendableRank[] = { 6, 7, 9 };
 	protected static final int BLUFFER_RANK_MIN = 2;
 	protected static final int BLUFFER_RANK_MAX = 5;
-	protected static final int BLUFFER_RANK_INIT = 4;
+	protected static final int BLUFFER_RANK_INIT = Params.value[Params.BLUFFER_RANK_INIT];
 	public int blufferRisk = BLUFFER_RANK_INIT;
 	protected int guessedRankCorrect = 0;
 	protected int guessedRankWrong = 0;
@@ -82,11 +93,11 @@ public class Board
 	protected int[][] lowerKnownOrSuspectedRankCount = new int[2][10];
 	protected boolean[] isBombedFlag = new boolean[2];
 	protected int unknownBombs[] = new int[2];
-    protected Random rnd = new Random();
+    protected Random rnd = Settings.newRandom(1);
     protected final int[] attackX = {0, 0, 4+rnd.nextInt(2), 9};
     protected final int[] attackaltX = {0, 1, 4+rnd.nextInt(2), 8};
-    protected static int forayLane[] = { 0, 0 };
-    protected static int suspectedFlagX[] = { -1, -1 };
+    protected int forayLane[] = { 0, 0 };
+    protected int suspectedFlagX[] = { -1, -1 };
     protected boolean[][] foraySquare =  new boolean[2][121];
     public ReentrantLock lock = new ReentrantLock();  // graphics lock
 
@@ -124,17 +135,71 @@ public class Board
 	// Red now has the move.
 	//
 
-		Random rnd = new Random();
+	// The keys were all drawn from one Random at class load,
+	// 2.4 million of them, which was most of the startup time of
+	// a bot process.  A search only ever uses some of the
+	// rank, state and moved combinations (a known piece always
+	// hashes as NIL), so each block of keys is now drawn on first
+	// use.  The blocks start where they started in the single
+	// sequence (the generator is stepped ahead, see skip()),
+	// so the keys, and with a seed the games, are as before.
+
+		hashSeed = scramble(Settings.seed == 0 ?
+			new Random().nextLong() : Settings.seed * 31 + 2);
+
+		long seed = skip(hashSeed, 2L * HASH_SLAB * boardHash.length());
+		for ( int i = 0; i < depthHash.length; i++) {
+			seed = step(seed);
+			long hi = (long)(int)(seed >>> 16) << 32;
+			seed = step(seed);
+			depthHash[i] = Math.abs(hi + (int)(seed >>> 16));
+		}
+	}
+
+	// java.util.Random, inlined so that a block can be started
+	// anywhere in the sequence
+
+	private static long scramble(long seed)
+	{
+		return (seed ^ MULTIPLIER) & MASK;
+	}
 
-		for ( int r = 0; r < 15; r++)
-		for ( int k = 0; k < 8; k++)
-		for ( int m = 0; m < 2; m++)
-		for ( int id = 0; id < 82; id++)
-		for ( int i = 12; i <= 120; i++)
-			boardHash[r][k][m][id][i] = Math.abs(rnd.nextLong());
+	private static long step(long seed)
+	{
+		return (seed * MULTIPLIER + ADDEND) & MASK;
+	}
+
+	// the seed after n steps
+	private static long skip(long seed, long n)
+	{
+		long mul = 1, add = 0;
+		long m = MULTIPLIER, a = ADDEND;
+		while (n > 0) {
+			if ((n & 1) != 0) {
+				mul = (mul * m) & MASK;
+				add = (add * m + a) & MASK;
+			}
+			a = ((m + 1) * a) & MASK;
+			m = (m * m) & MASK;
+			n >>>= 1;
+		}
+		return (mul * seed + add) & MASK;
+	}
 
-		for ( int i = 0; i < depthHash.length; i++)
-			depthHash[i] = Math.abs(rnd.nextLong());
+	private static long[][] hashSlab(int slab)
+	{
+		long[][] h = new long[HASH_IDS][121];
+		long seed = skip(hashSeed, 2L * HASH_SLAB * slab);
+		for ( int id = 0; id < HASH_IDS; id++)
+		for ( int i = 12; i <= 120; i++) {
+			seed = step(seed);
+			long hi = (long)(int)(seed >>> 16) << 32;
+			seed = step(seed);
+			h[id][i] = Math.abs(hi + (int)(seed >>> 16));
+		}
+		if (!boardHash.compareAndSet(slab, null, h))
+			h = boardHash.get(slab);
+		return h;
 	}
 	
 	public Board()
@@ -183,6 +248,14 @@ public class Board
 		for (int j=0;j<6;j++)
 			blue.add(new Piece(BLUE, Rank.BOMB));
 
+		// Number the pieces of every board as the first, after
+		// the water, so that a server running many games stays
+		// within the hash tables.
+		for (int i=0;i<red.size();i++)
+			red.get(i).setID(Grid.water.getID() + 1 + i);
+		for (int i=0;i<blue.size();i++)
+			blue.get(i).setID(Grid.water.getID() + 1 + red.size() + i);
+
 		tray.addAll(red);
 		tray.addAll(blue);
 
@@ -193,6 +266,16 @@ public class Board
 	public Board(Board b)
 	{
 		grid = new Grid(b.grid);
+
+		// The turn, the position history and the foray plans
+		// used to be static, shared by every board, so that
+		// only one game could be played or searched at a time.
+		// A copy still shares the history and the plans with
+		// its original, which is what the search expects.
+		bturn = b.bturn;
+		boardHistory = b.boardHistory;
+		forayLane = b.forayLane;
+		suspectedFlagX = b.suspectedFlagX;
 				
 		tray.addAll(b.tray);
 		undoList.addAll(b.undoList);
@@ -459,12 +542,13 @@ public class Board
 
 	static public long hashPiece(Piece p, int i)
 	{
-        return boardHash
-            [p.isKnown() ? Rank.NIL.ordinal() : p.getActingRankChaseLow().ordinal()]
-            [p.getStateFlags()]
-            [p.hasMoved() ? 1 : 0]
-            [p.getID()]
-            [i];
+        int slab = ((p.isKnown() ? Rank.NIL.ordinal() : p.getActingRankChaseLow().ordinal())
+            * HASH_FLAGS + p.getStateFlags()) * 2
+            + (p.hasMoved() ? 1 : 0);
+        long[][] h = boardHash.get(slab);
+        if (h == null)
+            h = hashSlab(slab);
+        return h[p.getID()][i];
 	}
 
 	public void rehash(Piece p, int i)
@@ -4371,7 +4455,11 @@ public class Board
 			guessedRankCorrect++;
 		else
 			guessedRankWrong++;
+		updateBlufferRisk();
+	}
 
+	protected void updateBlufferRisk()
+	{
 		blufferRisk = BLUFFER_RANK_INIT - guessedRankCorrect + guessedRankWrong;
 		blufferRisk = Math.max(blufferRisk, BLUFFER_RANK_MIN);
 		blufferRisk = Math.min(blufferRisk, BLUFFER_RANK_MAX);
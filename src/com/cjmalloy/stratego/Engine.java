@@ -54,19 +54,8 @@ public abstract class Engine
 
 			Piece fp = m.getPiece();
 			Piece tp = board.getPiece(m.getTo());
-			if (tp != null && fp.getColor() == Settings.topColor && !fp.isShown()) {
-				boolean shown = fp.isShown();
-				fp.setShown(true);
-				update();
-				try {
-					Thread.sleep(1000);
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-				}
-				fp.setShown(shown);
-			}
+			if (tp != null && fp.getColor() == Settings.topColor && !fp.isShown())
+				reveal(m);
 
 			if (board.attack(m))
 				return true;
@@ -144,6 +133,14 @@ public abstract class Engine
 		return false;
 	}
 	
+	// Called before an unknown piece of the top color attacks,
+	// with the board as it was before the attack.
+	// The engine used to show the attacker and sleep here for
+	// a second, which held up every game with the computer,
+	// even without a window.  Showing the attacker is now up to
+	// the view, which must not block.
+	protected void reveal(Move m) {}
+
 	protected abstract void gameOver(int winner);
 	protected abstract void update();
 }
@@ -16,8 +16,8 @@
 */
 
 package com.cjmalloy.stratego;
-import java.util.ArrayList;
 
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Grid 
 {
@@ -28,6 +28,10 @@ public class Grid
 
 	private Piece[] grid = new Piece[133];
 	public static Piece water = new Piece(-1, Rank.WATER);
+	static
+	{
+		water.setID(UniqueID.WATER);
+	}
 
 	// It is useful to answer the following grid questions quickly:
 	// 1. Does a piece have any legal moves (is it trapped)?
@@ -64,18 +68,22 @@ public class Grid
 
     // steps between squares
 
-        ArrayList<Integer> queue = new ArrayList<Integer>();
+    // These tables are built in every bot process before it can
+    // answer SETUP, so they are built without boxing and in one
+    // pass over the pairs of squares.
+
+        int[] queue = new int[133];
         final int[] dir = { -11, -1,  1, 11 };
 
         for (int f = 12; f <= 120; f++) {
             if (!isValid(f))
                 continue;
-            queue.clear();
-            queue.add(f);
+            int size = 0;
+            queue[size++] = f;
             steps[f][f]=1;
             int count = 0;
-            while (count < queue.size()) {
-                int j = queue.get(count++);
+            while (count < size) {
+                int j = queue[count++];
                 if (!isValid(j))
                     continue;
                 int n = steps[f][j];
@@ -87,37 +95,42 @@ public class Grid
                         continue;
 
                     steps[f][i] = n + 1;
-                    queue.add(i);
+                    queue[size++] = i;
                 } // d
             }
         }
 
-		for (int n = 0; n < NEIGHBORS; n++)
 		for (int f = 12; f <= 120; f++) {
 			if (!isValid(f))
 				continue;
-			neighbor[n][f] = new BitGrid();
+			for (int n = 0; n < NEIGHBORS; n++)
+				neighbor[n][f] = new BitGrid();
 			for (int t = 12; t <= 120; t++) {
 				if (!isValid(t) || f == t)
 					continue;
-				if (steps(f,t) > n + 1)  // depends on steps[]
-					continue;
-				neighbor[n][f].setBit(t);
+				// within n + 1 steps
+				for (int n = Math.max(0, steps(f,t) - 1); n < NEIGHBORS; n++)  // depends on steps[]
+					neighbor[n][f].setBit(t);
 			}
 		}
     }
 
+	// Every Board numbers its own pieces after the water (see
+	// Board()), so the ids 1 to 81 are used by every board in
+	// the same JVM.  Any other piece (a piece a client is sent,
+	// a piece in a move request) is given an id above them,
+	// so that it is not equal to a piece of a board.
 	public static class UniqueID
-    {
-            private static int id = 0;
+	{
+		public static final int WATER = 1;
+		public static final int BOARD = 81;	// last id of a board
+		private static AtomicInteger id = new AtomicInteger(BOARD);
 
-            static public int get()
-            {
-                    id++;
-        assert id <= 81 : "Only 81 unique pieces including water";
-                    return id;
-            }
-    }
+		static public int get()
+		{
+			return id.incrementAndGet();
+		}
+	}
 
 	public Grid() 
 	{
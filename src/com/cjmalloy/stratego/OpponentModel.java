@@ -0,0 +1,291 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// What the AI has learned about an opponent in earlier games.
+//
+// Board learns the habits of the opponent during a game
+// (blufferRisk, riskyAttacks, suspectedFlagX) but every game
+// starts from the same defaults.  In a match of many games against
+// the same opponent, the AI starts from what it saw in the earlier
+// games instead:
+//
+// - bluffs: the suspected ranks that turned out right and wrong
+//   (see Board.guess()).  These set the initial blufferRisk,
+//   and so how far genSuspectedRank() believes chasers and
+//   protectors.
+// - attacks: the risky attacks of low ranks on unknown pieces
+//   (see Board.countRiskyAttacks()).
+// - flag heat map: how often the flag was found on each setup
+//   square.  It sets the initial suspectedFlagX.
+//
+// Only what sets a prior is kept.  Maps of the other ranks would
+// have nothing to seed, because genSuspectedRank() works only from
+// how pieces move, and the same goes for how the opponent chases.
+//
+// A prior is half of the mean count per game, so that what the
+// opponent does in the current game soon outweighs the past.
+// The priors are set in the counters of the board, so they are
+// taken off again before the game is recorded.
+//
+// Setup squares are kept from the view of the opponent (row 0 is
+// its back row, column 0 its left), so that the games it played
+// as Red and as Blue add up.
+//
+// The profiles of all opponents are kept in one file in the working
+// directory (like ai.cfg), keyed by the name on the SETUP line.
+// Several bots may finish a game at the same time, so record()
+// locks the file and adds the counts of the game to the profile
+// as it is on disk, rather than writing back the profile it loaded.
+
+public class OpponentModel
+{
+	public static String file = "ai.opp";
+
+	private static final int MAGIC = 0x5354504d;	// "STPM"
+	private static final int SQUARES = 40;
+	private static final int FLAG = Rank.FLAG.ordinal();
+
+	public String name;
+	public int games = 0;
+	public int guessedRight = 0;
+	public int guessedWrong = 0;
+	public int riskyAttacks = 0;
+	public int[] flagHeat = new int[SQUARES];
+
+	// the priors apply() set in the counters of the board
+	private int priorRight = 0;
+	private int priorWrong = 0;
+	private int priorAttacks = 0;
+
+	public OpponentModel(String name)
+	{
+		this.name = name;
+	}
+
+	// Returns the profile of the opponent,
+	// empty if the opponent has not been seen before.
+	public static OpponentModel load(String name)
+	{
+		OpponentModel m = null;
+		if (new File(file).exists()) {
+			try {
+				RandomAccessFile f = new RandomAccessFile(file, "rw");
+				try {
+					FileLock lock = f.getChannel().lock();
+					m = read(f).get(name);
+					lock.release();
+				} finally {
+					f.close();
+				}
+			} catch (IOException e) {
+				System.err.println(file + ": " + e);
+			}
+		}
+		if (m == null)
+			m = new OpponentModel(name);
+		return m;
+	}
+
+	// Sets the priors of a new game.
+	// Call after the setup, before the first move.
+	public void apply(Board b)
+	{
+		if (games == 0)
+			return;
+
+		priorRight = guessedRight / (2 * games);
+		priorWrong = guessedWrong / (2 * games);
+		priorAttacks = riskyAttacks / (2 * games);
+		b.guessedRankCorrect += priorRight;
+		b.guessedRankWrong += priorWrong;
+		b.updateBlufferRisk();
+		b.riskyAttacks += priorAttacks;
+
+		int c = flagColumn();
+		if (c >= 0)
+			b.suspectedFlagX[Settings.bottomColor] = column(c);
+	}
+
+	// Adds what the game on b showed about the opponent
+	// (less the priors of apply()) to its profile on disk.
+	public void record(Board b)
+	{
+		OpponentModel game = new OpponentModel(name);
+		game.observe(b);
+		game.guessedRight -= priorRight;
+		game.guessedWrong -= priorWrong;
+		game.riskyAttacks -= priorAttacks;
+		try {
+			RandomAccessFile f = new RandomAccessFile(file, "rw");
+			try {
+				FileLock lock = f.getChannel().lock();
+				Map<String, OpponentModel> all = read(f);
+				OpponentModel m = all.get(name);
+				if (m == null)
+					all.put(name, game);
+				else
+					m.add(game);
+				write(f, all);
+				lock.release();
+			} finally {
+				f.close();
+			}
+		} catch (IOException e) {
+			System.err.println(file + ": " + e);
+		}
+	}
+
+	private void observe(Board b)
+	{
+		games = 1;
+		guessedRight = b.guessedRankCorrect;
+		guessedWrong = b.guessedRankWrong;
+		riskyAttacks = b.riskyAttacks;
+
+		for (int i = 12; i <= 120; i++) {
+			if (!Grid.isValid(i))
+				continue;
+			Piece p = b.getSetupPiece(i);
+			if (p == null
+				|| p.getColor() != Settings.bottomColor
+				|| !p.isKnown()
+				|| p.isSuspectedRank()
+				|| p.getRank() != Rank.FLAG)
+				continue;
+			int row = Grid.yside(p.getColor(), Grid.getY(i));
+			flagHeat[row * 10 + column(Grid.getX(i))]++;
+		}
+	}
+
+	private void add(OpponentModel m)
+	{
+		games += m.games;
+		guessedRight += m.guessedRight;
+		guessedWrong += m.guessedWrong;
+		riskyAttacks += m.riskyAttacks;
+		for (int i = 0; i < SQUARES; i++)
+			flagHeat[i] += m.flagHeat[i];
+	}
+
+	// The column (from the view of the opponent) where its flag
+	// was found in at least half of the games it was found,
+	// and at least twice, or -1.
+	private int flagColumn()
+	{
+		int[] n = new int[10];
+		int total = 0;
+		for (int i = 0; i < SQUARES; i++) {
+			n[i % 10] += flagHeat[i];
+			total += flagHeat[i];
+		}
+		int best = 0;
+		for (int c = 1; c < 10; c++)
+			if (n[c] > n[best])
+				best = c;
+		if (n[best] < 2 || n[best] * 2 < total)
+			return -1;
+		return best;
+	}
+
+	// Converts between x and the column from the left of the
+	// opponent (both ways).  The opponent on Blue faces up the board
+	// and on Red down, so its left is x 0 on Blue and x 9 on Red.
+	private static int column(int x)
+	{
+		if (Settings.bottomColor == Board.BLUE)
+			return x;
+		return 9 - x;
+	}
+
+	// File format: MAGIC, the number of profiles, and for each
+	// the name, games, guessedRight, guessedWrong, riskyAttacks,
+	// the number of non-zero heat map counts and those counts
+	// as (rank * 40 + square, count).  Only the flag map is
+	// written; the maps of other ranks in an older file are dropped.
+
+	private static Map<String, OpponentModel> read(RandomAccessFile f) throws IOException
+	{
+		Map<String, OpponentModel> all = new LinkedHashMap<String, OpponentModel>();
+		if (f.length() == 0)
+			return all;
+		byte[] b = new byte[(int)f.length()];
+		f.seek(0);
+		f.readFully(b);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+		if (in.readInt() != MAGIC)
+			throw new IOException("not an opponent profile file");
+		int n = in.readInt();
+		for (int k = 0; k < n; k++) {
+			OpponentModel m = new OpponentModel(in.readUTF());
+			m.games = in.readInt();
+			m.guessedRight = in.readInt();
+			m.guessedWrong = in.readInt();
+			m.riskyAttacks = in.readInt();
+			int counts = in.readShort();
+			for (int j = 0; j < counts; j++) {
+				int i = in.readShort();
+				int count = in.readInt();
+				if (i / SQUARES == FLAG)
+					m.flagHeat[i % SQUARES] = count;
+			}
+			all.put(m.name, m);
+		}
+		return all;
+	}
+
+	private static void write(RandomAccessFile f, Map<String, OpponentModel> all) throws IOException
+	{
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		out.writeInt(MAGIC);
+		out.writeInt(all.size());
+		for (OpponentModel m : all.values()) {
+			out.writeUTF(m.name);
+			out.writeInt(m.games);
+			out.writeInt(m.guessedRight);
+			out.writeInt(m.guessedWrong);
+			out.writeInt(m.riskyAttacks);
+			int counts = 0;
+			for (int i = 0; i < SQUARES; i++)
+				if (m.flagHeat[i] != 0)
+					counts++;
+			out.writeShort(counts);
+			for (int i = 0; i < SQUARES; i++)
+				if (m.flagHeat[i] != 0) {
+					out.writeShort(FLAG * SQUARES + i);
+					out.writeInt(m.flagHeat[i]);
+				}
+		}
+		out.flush();
+		f.seek(0);
+		f.write(b.toByteArray());
+		f.setLength(b.size());
+	}
+}
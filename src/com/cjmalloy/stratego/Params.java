@@ -0,0 +1,200 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+// The evaluation parameters.
+//
+// The piece values, plan priorities and bluffing constants of
+// TestingBoard and Board used to be compile time constants.
+// They are now read from this vector when those classes are
+// loaded, so a parameter file (-e<file>) changes the evaluation
+// without a rebuild, and the Tuner can play versions against
+// each other.  load() must be called before the first game.
+//
+// The defaults are the hand-tuned values.  min and max bound
+// the values the Tuner may try, and step is the size of its
+// perturbation (0 is not tuned).  The plan priorities are not
+// tuned by default, because their order matters (see the notes
+// at DEST_PRIORITY_LANE in TestingBoard) and a tuner step can
+// change it.
+//
+// A parameter file has one "NAME value" per line; # starts a
+// comment.  Parameters that are not in the file keep their
+// default.
+
+public class Params
+{
+	public static final int VALUE_ONE = 0;
+	public static final int VALUE_TWO = 1;
+	public static final int VALUE_THREE = 2;
+	public static final int VALUE_FOUR = 3;
+	public static final int VALUE_FIVE = 4;
+	public static final int VALUE_SIX = 5;
+	public static final int VALUE_SEVEN = 6;
+	public static final int VALUE_NINE = 7;
+	public static final int VALUE_SPY = 8;
+	public static final int VALUE_MOVED = 9;
+	public static final int VALUE_BLUFF = 10;
+	public static final int BLUFFER_RANK_INIT = 11;
+	public static final int DEST_PRIORITY_DEFEND_FLAG_AREA = 12;
+	public static final int DEST_PRIORITY_LANE = 13;
+	public static final int DEST_PRIORITY_ATTACK_FLAG = 14;
+	public static final int DEST_PRIORITY_ATTACK_FLAG_WITH_SCOUT = 15;
+	public static final int DEST_PRIORITY_CHASE_DEFEND = 16;
+	public static final int DEST_PRIORITY_CHASE_ATTACK = 17;
+	public static final int DEST_PRIORITY_CHASE = 18;
+	public static final int DEST_PRIORITY_LOW = 19;
+
+	public static final String[] name = {
+		"VALUE_ONE",
+		"VALUE_TWO",
+		"VALUE_THREE",
+		"VALUE_FOUR",
+		"VALUE_FIVE",
+		"VALUE_SIX",
+		"VALUE_SEVEN",
+		"VALUE_NINE",
+		"VALUE_SPY",
+		"VALUE_MOVED",
+		"VALUE_BLUFF",
+		"BLUFFER_RANK_INIT",
+		"DEST_PRIORITY_DEFEND_FLAG_AREA",
+		"DEST_PRIORITY_LANE",
+		"DEST_PRIORITY_ATTACK_FLAG",
+		"DEST_PRIORITY_ATTACK_FLAG_WITH_SCOUT",
+		"DEST_PRIORITY_CHASE_DEFEND",
+		"DEST_PRIORITY_CHASE_ATTACK",
+		"DEST_PRIORITY_CHASE",
+		"DEST_PRIORITY_LOW"
+	};
+
+	//					default	min	max	step
+	private static final int[][] range = {
+		{ 6400,	3200,	12800,	320 },	// VALUE_ONE
+		{ 3200,	1600,	6400,	160 },	// VALUE_TWO
+		{ 1600,	800,	3200,	80 },	// VALUE_THREE
+		{ 800,	400,	1600,	40 },	// VALUE_FOUR
+		{ 400,	200,	800,	20 },	// VALUE_FIVE
+		{ 200,	100,	400,	10 },	// VALUE_SIX
+		{ 120,	60,	240,	6 },	// VALUE_SEVEN
+		{ 80,	40,	160,	4 },	// VALUE_NINE
+		{ 60,	30,	120,	3 },	// VALUE_SPY
+		{ 26,	0,	80,	2 },	// VALUE_MOVED
+		{ 2,	-10,	10,	1 },	// VALUE_BLUFF
+		{ 4,	2,	5,	1 },	// BLUFFER_RANK_INIT
+		{ 7,	7,	7,	0 },	// DEST_PRIORITY_DEFEND_FLAG_AREA
+		{ 6,	6,	6,	0 },	// DEST_PRIORITY_LANE
+		{ 3,	3,	3,	0 },	// DEST_PRIORITY_ATTACK_FLAG
+		{ 5,	5,	5,	0 },	// DEST_PRIORITY_ATTACK_FLAG_WITH_SCOUT
+		{ 4,	4,	4,	0 },	// DEST_PRIORITY_CHASE_DEFEND
+		{ 3,	3,	3,	0 },	// DEST_PRIORITY_CHASE_ATTACK
+		{ 2,	2,	2,	0 },	// DEST_PRIORITY_CHASE
+		{ 1,	1,	1,	0 }	// DEST_PRIORITY_LOW
+	};
+
+	public static final int SIZE = name.length;
+
+	public static int[] value = defaults();
+
+	private Params(){}
+
+	public static int[] defaults()
+	{
+		int[] v = new int[SIZE];
+		for (int i = 0; i < SIZE; i++)
+			v[i] = range[i][0];
+		return v;
+	}
+
+	public static int min(int i)
+	{
+		return range[i][1];
+	}
+
+	public static int max(int i)
+	{
+		return range[i][2];
+	}
+
+	public static int step(int i)
+	{
+		return range[i][3];
+	}
+
+	public static int find(String s)
+	{
+		for (int i = 0; i < SIZE; i++)
+			if (name[i].equals(s))
+				return i;
+		return -1;
+	}
+
+	public static void load(String file) throws IOException
+	{
+		value = read(file);
+	}
+
+	public static int[] read(String file) throws IOException
+	{
+		int[] v = defaults();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int c = line.indexOf('#');
+				if (c >= 0)
+					line = line.substring(0, c);
+				line = line.trim();
+				if (line.equals(""))
+					continue;
+				String[] t = line.split("\\s+");
+				int i = find(t[0]);
+				if (i < 0 || t.length != 2)
+					throw new IOException(file + ": bad parameter: " + line);
+				try {
+					v[i] = Integer.parseInt(t[1]);
+				} catch (NumberFormatException e) {
+					throw new IOException(file + ": bad value: " + line);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return v;
+	}
+
+	// comment lines are written first, each prefixed by #
+	public static void write(String file, int[] v, String comment) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		if (comment != null)
+			for (String s : comment.split("\n"))
+				out.println("# " + s);
+		for (int i = 0; i < SIZE; i++)
+			out.println(name[i] + " " + v[i]);
+		out.close();
+		if (out.checkError())
+			throw new IOException(file + ": write failed");
+	}
+}
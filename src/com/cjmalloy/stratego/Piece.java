@@ -57,6 +57,14 @@ public class Piece implements Comparable<Piece>
 		clearActingRank();
 	}
 
+	// a piece numbered by its caller, such as a piece a client
+	// is sent for a tray slot (see WView.update(Spot, Piece))
+	public Piece(int id, int c, Rank r)
+	{
+		this(c, r);
+		uniqueID = id;
+	}
+
 	public Piece(Piece p) 
 	{
 		copy(p);
@@ -166,6 +174,11 @@ public class Piece implements Comparable<Piece>
 		return color;
 	}
 
+	void setID(int id)
+	{
+		uniqueID = id;
+	}
+
 	public int getID() 
 	{
 		return uniqueID;
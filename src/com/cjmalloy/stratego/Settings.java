@@ -17,6 +17,8 @@
 
 package com.cjmalloy.stratego;
 
+import java.util.Random;
+
 public class Settings
 {
 	public static int aiLevel = 1;
@@ -30,6 +32,47 @@ public class Settings
 	public static boolean bOneTimeBombs = false;
 	public static boolean twoSquares = true;
 	public static int debugLevel = 0;
-	
+
+	// How long (ms) the window shows an unknown computer piece
+	// before its attack is resolved (-r<ms>).  The game itself does
+	// not wait; 0 (turbo) shows every position at once.
+	public static int revealTime = 1000;
+
+	// A non-zero seed makes the AI reproducible (-s<seed>),
+	// so that a position always yields the same search tree,
+	// principal variation and move.  This is needed
+	// to compare versions on the same positions.
+	// The hash keys, setup and other random choices are
+	// drawn from generators seeded by it (see newRandom())
+	// and the search is limited by nodes rather than by the clock,
+	// because the clock depends on machine load.
+	// The opponent profile (ai.opp, see OpponentModel) is neither
+	// read nor updated.
+	public static long seed = 0;
+
+	// Search limits (0 is no limit).
+	// If either is set, the search is not limited by the clock
+	// (aiLevel), so that the strength of the AI does not depend
+	// on machine load (-n<nodes>, -d<depth>).
+	public static long nodeLimit = 0;
+	public static int depthLimit = 0;
+
+	// Nodes searched per hundredth of a second when
+	// the search is limited by nodes (about the node rate
+	// of a desktop, so that the levels play about the same).
+	public static final int NODES_PER_TICK = 5000;
+
 	private Settings(){}
+
+	// Each caller passes a distinct salt so that
+	// the generators do not return the same sequence.
+	// (For example, if the hash keys for two-squares chases
+	// were the same as the board hash keys, positions would collide.)
+
+	public static Random newRandom(int salt)
+	{
+		if (seed == 0)
+			return new Random();
+		return new Random(seed * 31 + salt);
+	}
 }
@@ -40,5 +40,6 @@ public class View
 	public boolean isActive() { return false; }
 	public void moveInit(Move m) {}
 	public void moveComplete(Move m) { update(); }
+	public void reveal(Move m) {}
 }
 
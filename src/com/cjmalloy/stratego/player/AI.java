@@ -47,7 +47,7 @@ import com.cjmalloy.stratego.TTEntry;
 
 public class AI implements Runnable
 {
-	public static ReentrantLock aiLock = new ReentrantLock();
+	public ReentrantLock aiLock = new ReentrantLock();
 	static final int MAX_PLY = 30;
 	private Board board = null;
 	private TestingBoard b = null;
@@ -78,9 +78,26 @@ public class AI implements Runnable
 	private final int QSMAX = 4;	// maximum qs search depth
 	int bestMove = 0;
 	long stopTime = 0;
+	long nodes = 0;
+	long nodeLimit = 0;
+	int depthLimit = MAX_PLY - 1;
+	long timeLimit = 0;	// ms per move, overrides Settings (see setTimeLimit())
 	int moveRoot = 0;
 	int completedDepth = 0;
 	int deepSearch = 0;
+	private ArrayList<Integer> excluded = new ArrayList<Integer>();	// root moves skipped by analyze()
+	private Endgame endgame = new Endgame();
+	private FlagAttack flagAttack = new FlagAttack();
+
+	// One line of multi-PV analysis (see analyze())
+	static public class Line
+	{
+		public int depth;	// iteration that found the line
+		public int move;	// root move
+		public int value;	// value from the view of the ai
+		public long nodes;	// nodes searched so far
+		public ArrayList<Integer> pv;	// root move and expected reply moves
+	}
 
 	enum MoveResult {
 		TWO_SQUARES,
@@ -104,7 +121,7 @@ public class AI implements Runnable
 
 	static private long[] twoSquaresHash = new long[3];
 	static {
-		Random rnd = new Random();
+		Random rnd = Settings.newRandom(3);
         for (int i = 0; i < 3; i++)
             twoSquaresHash[i] = Math.abs(rnd.nextLong());
 	}
@@ -116,6 +133,14 @@ public class AI implements Runnable
 		engine = u;
 	}
 	
+	// A server plays many games at once, each with its own
+	// clock, so the time for a move is set by the caller
+	// rather than by the global aiLevel.  0 restores aiLevel.
+	public void setTimeLimit(long ms)
+	{
+		timeLimit = ms;
+	}
+
 	public void getMove() 
 	{
 		new Thread(this).start();
@@ -130,7 +155,7 @@ public class AI implements Runnable
 		BufferedReader cfg;
 		if(!f.exists()) {
 			// f.createNewFile();
-			InputStream is = Class.class.getResourceAsStream("/com/cjmalloy/stratego/resource/ai.cfg");
+			InputStream is = AI.class.getResourceAsStream("/com/cjmalloy/stratego/resource/ai.cfg");
 			InputStreamReader isr = new InputStreamReader(is);
 			cfg = new BufferedReader(isr);
 		} else
@@ -141,21 +166,20 @@ public class AI implements Runnable
 		while ((fn = cfg.readLine()) != null)
 			if (!fn.equals("")) setup.add(fn);
 		
+		Random rnd = Settings.newRandom(4);
 		while (setup.size() != 0)
 		{
-			Random rnd = new Random();
 			String line = setup.get(rnd.nextInt(setup.size()));
 			String[] opts = line.split(",");
 			long skip = 0;
 			if (opts.length > 1)
 				skip = (Integer.parseInt(opts[1]) - 1) * 80;
-			rnd = null;
 			
 			BufferedReader in;
 			try
 			{
 				if(!f.exists()) {
-					InputStream is = Class.class.getResourceAsStream(opts[0]);
+					InputStream is = AI.class.getResourceAsStream(opts[0]);
 					InputStreamReader isr = new InputStreamReader(is);
 					in = new BufferedReader(isr);
 				} else 
@@ -230,7 +254,6 @@ public class AI implements Runnable
 		for (int i=0;i<10;i++)
 		for (int j=6;j<10;j++)
 		{
-			Random rnd = new Random();
 			int s = board.getTraySize();
 			if (s == 0)
 				break;
@@ -249,8 +272,8 @@ public class AI implements Runnable
 		aiLock.lock();
 		log("Settings.aiLevel:" + Settings.aiLevel);
 		log("Settings.twoSquares:" + Settings.twoSquares);
-		stopTime = startTime
-			+ Settings.aiLevel * Settings.aiLevel * 10;
+
+		setLimits(startTime);
 
 		b = new TestingBoard(board);
 		log(b.getDebugInfo());
@@ -283,6 +306,7 @@ public class AI implements Runnable
 			long t = System.currentTimeMillis() - startTime;
 			t = System.currentTimeMillis() - startTime;
 			log("getBestMove() returned at " + t + "ms");
+			log(PV, "depth:" + completedDepth + " nodes:" + nodes + " time:" + t + "ms\n");
 			System.runFinalization();
 
 		// note: no assertions here, because they overwrite
@@ -310,6 +334,36 @@ public class AI implements Runnable
 		}
 	}
 
+	// The search is limited by the clock unless a node
+	// or depth limit is set.  A reproducible search cannot
+	// depend on the clock either, so without a limit it
+	// is given the number of nodes equivalent to aiLevel.
+
+	private void setLimits(long startTime)
+	{
+		stopTime = 0;
+		nodeLimit = Settings.nodeLimit;
+		depthLimit = MAX_PLY - 1;
+		if (Settings.depthLimit != 0)
+			depthLimit = Math.min(Settings.depthLimit, MAX_PLY - 1);
+		if (Settings.nodeLimit == 0 && Settings.depthLimit == 0) {
+			if (Settings.seed != 0)
+				nodeLimit = Settings.aiLevel * Settings.aiLevel
+					* Settings.NODES_PER_TICK;
+			else
+				stopTime = startTime
+					+ Settings.aiLevel * Settings.aiLevel * 10;
+		}
+		if (timeLimit != 0) {
+			nodeLimit = 0;
+			depthLimit = MAX_PLY - 1;
+			stopTime = startTime + timeLimit;
+		}
+		log("Settings.seed:" + Settings.seed
+			+ " nodeLimit:" + nodeLimit
+			+ " depthLimit:" + depthLimit);
+	}
+
 	private void addMove(ArrayList<Integer> moveList, int m)
 	{
 		moveList.add(m);
@@ -886,12 +940,8 @@ public class AI implements Runnable
 // public ArrayList<Piece>[] scouts = new ArrayList<Piece>()[2];
 // and then it warns if you created a non-typed list array.
 @SuppressWarnings("unchecked")
-	private void getBestMove() throws InterruptedException
+	private void initSearch()
 	{
-		int tmpM = 0;
-		int bestMoveValue = 0;
-		int ncount = 0;
-
 		// Because of substantial pre-processing before each move,
 		// the entries in the transposition table
 		// should be cleared to prevent anomolies.
@@ -914,12 +964,29 @@ public class AI implements Runnable
 		}
 
 		// move history heuristic (hh)
+		// The history is halved rather than cleared before
+		// each move.  Most of the moves that caused cutoffs
+		// in the prior search are still good moves, and the
+		// history of the current search soon outweighs them.
 		for (int j=0; j < hh.length; j++)
-			hh[j] = 0;
+			hh[j] >>= 1;
 
 		completedDepth = 0;
+		nodes = 0;
 
 		genDeepSearch();
+	}
+
+	private void getBestMove() throws InterruptedException
+	{
+		int tmpM = 0;
+		int bestMoveValue = 0;
+		int ncount = 0;
+
+		initSearch();
+
+		if (solveEndgame() || solveFlagAttack())
+			return;
 
         // On non-dedicated computers, the amount of resource
         // available to the AI will vary from move to move
@@ -944,14 +1011,14 @@ public class AI implements Runnable
             && entry.bestMove != -1
             && b.validMove(entry.bestMove)
             && (b.fromPiece(entry.bestMove).isKnown() || b.toPiece(entry.bestMove) == null)) {
-                nstart = Math.max(1, entry.depth - 2);
+                nstart = Math.min(depthLimit, Math.max(1, entry.depth - 2));
                 log("\n<<< Reusing prior move state starting at " + nstart);
                 bestMove = entry.bestMove;
         }
 
 		// Iterative Deepening
 
-		for (int n = nstart; n < MAX_PLY; n++) {
+		for (int n = nstart; n <= depthLimit; n++) {
 
 		Move killerMove = new Move(null, -1);
 		Move returnMove = new Move(null, -1);
@@ -1061,11 +1128,156 @@ public class AI implements Runnable
 			hh[bestMove]+=n;
 		log("\n-+++-");
 
-		log(PV, "PV:" + n + " " + vm + "\n");
+		log(PV, "PV:" + n + " " + vm + " nodes:" + nodes + "\n");
 		logPV(Settings.topColor, n);
 		} // iterative deepening
 	}
 
+	// With every opponent piece known and few pieces left,
+	// a forced win is proven (see Endgame) rather than searched for.
+	// The solver gets half of the budget of the move, and if it
+	// does not find a win, the search goes on as usual.
+
+	private boolean solveEndgame()
+	{
+		if (!endgame.load(b))
+			return false;
+
+		// the solver does not know the history of the game
+		for (int m : endgame.rootMoves())
+			if (!legalRootMove(m))
+				endgame.exclude(m);
+
+		long limit = Endgame.maxNodes;
+		long stop = 0;
+		if (nodeLimit != 0)
+			limit = nodeLimit / 2;
+		else if (stopTime != 0) {
+			long now = System.currentTimeMillis();
+			stop = now + (stopTime - now) / 2;
+		}
+
+		int m = endgame.solve(limit, stop);
+		if (m == 0) {
+			log(PV, "endgame: no win found, nodes:" + endgame.nodes() + "\n");
+			return false;
+		}
+		log(PV, "endgame: win in " + endgame.depth + " plies, nodes:" + endgame.nodes() + "\n");
+		bestMove = m;
+		return true;
+	}
+
+	// When possibleFlag() has narrowed the opponent flag down to
+	// one structure and an attacker is within reach, a proof search
+	// looks for a forced capture with an eighth of the budget of
+	// the move.  The proof assumes that the flag and the suspected
+	// bombs are what they are guessed to be (see FlagAttack).  If there is one, its first move is played, and the
+	// next move finds the rest of the line again, two plies shorter.
+	private boolean solveFlagAttack()
+	{
+		if (!flagAttack.load(b))
+			return false;
+
+		for (int m : flagAttack.rootMoves())
+			if (!legalRootMove(m))
+				flagAttack.exclude(m);
+
+		long limit = FlagAttack.maxNodes;
+		long stop = 0;
+		if (nodeLimit != 0)
+			limit = nodeLimit / 8;
+		else if (stopTime != 0) {
+			long now = System.currentTimeMillis();
+			stop = now + (stopTime - now) / 8;
+		}
+
+		int m = flagAttack.solve(limit, stop);
+		if (m == 0) {
+			log(PV, "flag: no forced capture, nodes:" + flagAttack.nodes() + "\n");
+			return false;
+		}
+		String pv = "";
+		for (int pm : flagAttack.line)
+			pv += " " + (pm == 0 ? "pass" : AITest.formatMove(pm));
+		log(PV, "flag: capture in " + flagAttack.depth + " plies if the flag and bomb guesses hold, nodes:" + flagAttack.nodes() + pv + "\n");
+		bestMove = m;
+		return true;
+	}
+
+	private boolean legalRootMove(int m)
+	{
+		MoveResult mt = makeMove(m);
+		if (mt == MoveResult.OK) {
+			b.undo();
+			return true;
+		}
+		return mt == MoveResult.NEG;	// legal, undone by makeMove()
+	}
+
+	// Multi-PV analysis
+	//
+	// getBestMove() finds only the best move, and the value of
+	// the other root moves is just a bound.  To compare the
+	// best few moves, each iteration searches the root again
+	// with the moves already found excluded, so the next search
+	// returns the exact value of the next best move.  This is
+	// not as costly as it sounds, because the positions below
+	// the root are already in the transposition table.
+	//
+	// The search is limited in the same way as getMove(),
+	// but runs on the caller thread and does not make a move.
+	// The lines of each completed iteration are returned,
+	// best move first, deepest iteration last.
+
+	public ArrayList<Line> analyze(int multiPV)
+	{
+		ArrayList<Line> lines = new ArrayList<Line>();
+		aiLock.lock();
+		try {
+			setLimits(System.currentTimeMillis());
+			b = new TestingBoard(board);
+			initSearch();
+			bestMove = 0;
+
+			for (int n = 1; n <= depthLimit; n++) {
+				excluded.clear();
+				for (int k = 0; k < multiPV; k++) {
+					Move killerMove = new Move(null, -1);
+					Move returnMove = new Move(null, -1);
+					int vm = negamax(n, -22222, 22222, killerMove, returnMove);
+					int m = returnMove.getMove();
+					if (m == -1 || m == 0)
+						break;
+					if (k == 0)
+						bestMove = m;
+
+					Line line = new Line();
+					line.depth = n;
+					line.move = m;
+					line.value = vm;
+					line.nodes = nodes;
+					line.pv = getPV(m, n);
+					lines.add(line);
+					log(PV, "PV:" + n + "." + (k+1) + " " + vm + " nodes:" + nodes + " " + logMove(b, n, m) + "\n");
+					excluded.add(m);
+				}
+				completedDepth = n;
+			}
+		} catch (InterruptedException e) {
+			log("time aborted");
+		} finally {
+			excluded.clear();
+			logFlush("----");
+			aiLock.unlock();
+		}
+		return lines;
+	}
+
+	private boolean isExcluded(int m)
+	{
+		return b.depth == -1 && excluded.contains(m);
+	}
+
 	// Quiescence Search (qs)
 	// Deepening the tree to evaluate worthwhile captures
 	// and flee moves.  The search ends when the position becomes
@@ -1547,9 +1759,12 @@ public class AI implements Runnable
 
 	private int negamax(int n, int alpha, int beta, Move killerMove, Move returnMove) throws InterruptedException
 	{
+		nodes++;
 		if (bestMove != 0
-			&& stopTime != 0
-			&& System.currentTimeMillis( ) > stopTime) {
+			&& ((stopTime != 0
+				&& System.currentTimeMillis( ) > stopTime)
+			|| (nodeLimit != 0
+				&& nodes > nodeLimit))) {
 
 		// reset the board back to the original
 		// so that logPV() works
@@ -1558,7 +1773,7 @@ public class AI implements Runnable
 			for (int i = 0; i <= depth; i++)
 				b.undo();
 
-			log(String.format("abort at %d", depth));
+			log(String.format("abort at %d after %d nodes", depth, nodes));
 			throw new InterruptedException();
 		}
 
@@ -1607,7 +1822,12 @@ public class AI implements Runnable
 		// this may not work.
 
 		} else if (entry.hash == hashOrig
-			&& moveRoot == entry.moveRoot) {
+			&& moveRoot == entry.moveRoot
+			&& !isExcluded(entry.bestMove)) {
+
+		// Note: the root entry is the value of the best move,
+		// which is no use once analyze() has excluded it.
+
 			if (entry.depth >= n) {
 				if (entry.exactDepth >= n) {
 					returnMove.setMove(entry.bestMove);
@@ -1652,6 +1872,10 @@ public class AI implements Runnable
 
 		assert hashOrig == getHash() : "hash changed";
 
+		// Keep the root entry for the best move
+		if (b.depth == -1 && !excluded.isEmpty())
+			return vm;
+
 		// Note: this is the same as Marsland
 		// (A Review of Game Tree Pruning, p. 15)
 		// with a slight improvement by qualifying UPPERBOUND
@@ -1827,6 +2051,7 @@ public class AI implements Runnable
 
 		if (km != -1
 			&& km != ttMove
+			&& !isExcluded(km)
 			&& isValidMove(unpruned, km)) {
 			logMove(n, km, b.getValue(), MoveType.KM);
 			MoveResult mt = makeMove(km);
@@ -1917,6 +2142,8 @@ public class AI implements Runnable
 			int bestPrunedMove = -1;
 			for (int mo = 0; mo <= INACTIVE; mo++)
 			for (int move : moveList[mo]) {
+				if (isExcluded(move))
+					continue;
 				logMove(2, move, 0, MoveType.PR);
 				MoveResult mt = makeMove(move);
 				if (mt == MoveResult.OK) {
@@ -2033,11 +2260,12 @@ public class AI implements Runnable
 			for (int i = 0; i < ml.size(); i++) {
 				int max = sortMove(ml, i);
 
-		// skip ttMove and killerMove
+		// skip ttMove, killerMove and moves excluded by analyze()
 
 				if (max != 0
 					&& (max == ttMove
-						|| max == km))
+						|| max == km
+						|| isExcluded(max)))
 					continue;
 
 				logMove(n, max, b.getValue(), MoveType.GE);
@@ -2633,4 +2861,32 @@ public class AI implements Runnable
 		logPV(1-turn, --n);
 		b.undo();
 	}
+
+	// Returns the root move m and the expected replies
+	// from the transposition table, at most n moves.
+	private ArrayList<Integer> getPV(int m, int n)
+	{
+		ArrayList<Integer> pv = new ArrayList<Integer>();
+		int turn = Settings.topColor;
+		for (int i = 0; i < n; i++) {
+			if (m == 0)
+				b.pushMove(UndoMove.NullMove);
+			else if (m == -1 || !b.validMove(m))
+				break;
+			else
+				b.move(m);
+			pv.add(m);
+			turn = 1 - turn;
+
+			long hash = getHash();
+			TTEntry entry = ttable[turn][(int)(hash % ttable[turn].length)];
+			if (entry == null
+				|| hash != entry.hash)
+				break;
+			m = entry.bestMove;
+		}
+		for (int i = 0; i < pv.size(); i++)
+			b.undo();
+		return pv;
+	}
 }
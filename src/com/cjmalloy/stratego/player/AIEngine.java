@@ -18,6 +18,7 @@
 package com.cjmalloy.stratego.player;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import javax.swing.JOptionPane;
 
@@ -36,6 +37,7 @@ public class AIEngine extends Engine implements CompControls, UserControls
 {
 	private View view = null;
 	private AI ai = null;
+	private boolean replay = false;	// moves come from a game record
 	
 	public AIEngine(View v)
 	{
@@ -71,7 +73,7 @@ public class AIEngine extends Engine implements CompControls, UserControls
 			// this is how we get started
 			view.setUndoMode();
 			status = Status.PLAYING;
-			if (turn!=Settings.bottomColor)
+			if (turn!=Settings.bottomColor && !replay)
 				requestCompMove();
 		}
 		else 
@@ -129,6 +131,34 @@ public class AIEngine extends Engine implements CompControls, UserControls
 		}
 	}
 
+	// Replay a game record.  The moves for both sides
+	// are made with replayMove() and the ai does not move
+	// unless asked for analysis.
+
+	public void setReplay(boolean r)
+	{
+		replay = r;
+	}
+
+	public boolean replayMove(Move m)
+	{
+		if (m == null || status != Status.PLAYING)
+			return false;
+
+		ai.logMove(m);
+		if (!requestMove(m, view.isActive())) {
+			ai.logFlush("ILLEGAL MOVE");
+			return false;
+		}
+		update();
+		return true;
+	}
+
+	public ArrayList<AI.Line> analyze(int multiPV)
+	{
+		return ai.analyze(multiPV);
+	}
+
 	public void aiReturnMove(Move m)
 	{
 		if (m==null || m.getPiece()==null)
@@ -168,6 +198,12 @@ public class AIEngine extends Engine implements CompControls, UserControls
 		view.gameOver(winner);
 	}
 
+	@Override
+	protected void reveal(Move m)
+	{
+		view.reveal(m);
+	}
+
 	@Override
 	protected void update()
 	{
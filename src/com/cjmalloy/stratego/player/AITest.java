@@ -19,6 +19,7 @@ package com.cjmalloy.stratego.player;
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Engine;
 import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.OpponentModel;
 import com.cjmalloy.stratego.Piece;
 import com.cjmalloy.stratego.Settings;
 import com.cjmalloy.stratego.Spot;
@@ -26,7 +27,8 @@ import com.cjmalloy.stratego.Status;
 import com.cjmalloy.stratego.Rank;
 import com.cjmalloy.stratego.View;
 
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.lang.Exception;
 import java.util.Vector;
 import java.util.concurrent.Semaphore;
@@ -38,13 +40,16 @@ public class AITest extends View
 {
 	//main entry point
 	private AIEngine engine;
-	private Scanner scan;
+	private Protocol io;
 	private Semaphore aimove = new Semaphore(0);
 	private boolean active = false;
+	private boolean analysis = false;	// replay and analyze a game record
+	private boolean batch = false;		// a record replayed for Batch
 	private WView wview = null;
 
         private String colour; //Colour of the AI
         private String opponentName; //Name of the AI's opponent
+	private OpponentModel opponent = null;	// profile from earlier games
         private int width; //Width of the board (NOTE: Should always be 10)
         private int height; //Height of the board (NOTE: Should always be 10)
 
@@ -71,20 +76,47 @@ public class AITest extends View
 
 	public AITest(boolean graphics) 
 	{
+		this(graphics, false);
+	}
+
+	/**
+	 * In analysis mode, the AI does not play.  Instead it replays
+	 * a game record and prints the best lines on request:
+	 * <pre>
+	 * RED opponent 10 10 [options]	SETUP line, as in play
+	 * 4 lines of AI setup		as printed by the AI in play
+	 * x y DIR [n] OUTCOME ...	result line of a move by either side
+	 * ANALYZE [k]			print the best k lines (AI to move)
+	 * QUIT
+	 * </pre>
+	 * Board lines are not sent after results.  ANALYZE prints
+	 * one line per move and iteration, then END:
+	 * <pre>
+	 * PV depth=d line=i value=v nodes=n : x y DIR [n], ...
+	 * </pre>
+	 */
+	public AITest(boolean graphics, boolean analyze) 
+	{
+		analysis = analyze;
 		engine = new AIEngine(this);
+		engine.setReplay(analysis);
 		if (graphics) {
 			wview = new WView();
 			wview.showBoard(engine.getBoard());
 		}
-                scan = new Scanner(System.in);
+                io = new Protocol(System.in, System.out);
 
 	try
 	{
 	    setup();
+	    if (analysis) {
+		engine.play();
+		while (true)
+			AnalysisCycle();
+	    }
 	    if (Settings.topColor == Board.RED) {
 		// flush START and board
-		for (int i = 0; i < 11; i++)
-			scan.nextLine();
+		io.skipLines(11);
 		engine.play();
 		aimove.acquire();
 	    } else {
@@ -103,26 +135,101 @@ public class AITest extends View
 
  	}
 
+	/**
+	 * Replays the SETUP line and AI setup of a game record
+	 * for Batch, without the protocol loop.  The search limits
+	 * on the SETUP line are ignored, the batch sets them.
+	 * @param in the record
+	 */
+	AITest(Protocol in) throws Exception
+	{
+		analysis = true;
+		batch = true;
+		engine = new AIEngine(this);
+		engine.setReplay(true);
+		io = in;
+		setup();
+		engine.play();
+	}
+
 	/**
          * Cycles a move
          */
         public void MoveCycle() throws Exception
         {
                 Move move = InterpretResult();	// wait for opponent move
-		// board
-		for (int i = 0; i < 10; i++)
-			scan.nextLine();
+		io.skipLines(10);	// board
 		engine.requestUserMove(move);	// make the user move on board
         }
 
+	/**
+	 * Replays a move or analyzes the position
+	 */
+	public void AnalysisCycle() throws Exception
+	{
+		String input = io.nextLine();
+		Vector<String> command = readTokens(input);
+		if (command.elementAt(0).compareTo("ANALYZE") != 0) {
+			replay(input);
+			return;
+		}
+
+		int multiPV = 1;
+		if (command.size() > 1)
+			multiPV = Integer.parseInt(command.elementAt(1));
+		ArrayList<AI.Line> lines = analyze(multiPV);
+		int depth = 0;
+		int i = 0;
+		for (AI.Line line : lines) {
+			if (line.depth != depth) {
+				depth = line.depth;
+				i = 0;
+			}
+			String pv = "";
+			for (int m : line.pv)
+				pv += (pv.equals("") ? "" : ", ") + formatMove(m);
+			io.println("PV depth=" + line.depth
+				+ " line=" + (++i)
+				+ " value=" + line.value
+				+ " nodes=" + line.nodes
+				+ " : " + pv);
+		}
+		io.println("END");
+		io.flush();
+	}
+
+	/**
+	 * Makes the move in a result line of either side
+	 * @throws Exception on a bad or illegal move
+	 */
+	public void replay(String input) throws Exception
+	{
+		Move move = InterpretResult(input);
+		if (move != null && !engine.replayMove(move))
+			throw new Exception("BasicAI.AnalysisCycle - Illegal move " + input);
+	}
+
+	/**
+	 * Searches the position, AI to move
+	 * @return the best lines of each iteration
+	 */
+	public ArrayList<AI.Line> analyze(int multiPV)
+	{
+		return engine.analyze(multiPV);
+	}
+
 	/**
 	 * Implements Setup phase of protocol described in manager program man page
+	 *
+	 * The SETUP line may be followed by optional search limits
+	 * which override the command line, e.g.
+	 * RED opponent 10 10 nodes=200000 depth=8 level=10
 	 */
 	public void setup() throws Exception
 	{
-		String input = scan.nextLine();	// SETUP line
+		String input = io.nextLine();	// SETUP line
 		Vector<String> setup = readTokens(input); //Wierd java way of doing input from stdin, see Reader.java
-		if (setup.size() != 4)
+		if (setup.size() < 4)
 		{
 			throw new Exception("BasicAI.Setup - Expected 4 tokens, got " + setup.size());
 		}	
@@ -130,6 +237,9 @@ public class AITest extends View
 		opponentName = setup.elementAt(1);
 		width = Integer.parseInt(setup.elementAt(2));
 		height = Integer.parseInt(setup.elementAt(3));
+		if (!batch)
+			for (int i = 4; i < setup.size(); i++)
+				setLimit(setup.elementAt(i));
 
 		if (width != 10 || height != 10)
 			throw new Exception("BasicAI.Setup - Expected width and height of 10, got " + width + " and " + height);
@@ -144,6 +254,10 @@ public class AITest extends View
 		active = true;
 		engine.newGame();
 
+		// in analysis mode, the AI setup is from the game record
+		if (analysis)
+			readSetup();
+
 		engine.play();	 // this runs ai setup
 
 		for (int y = 6; y < 10; y++) 
@@ -153,10 +267,79 @@ public class AITest extends View
 			p.saveActualRank();
 			p.setShown(false);
 		}
-		printBoard();
+		// The profile of the opponent sets the priors of the game.
+		// Not with a seed, because the profile changes with every
+		// game and the AI would no longer be reproducible.
+		if (!analysis && Settings.seed == 0) {
+			opponent = OpponentModel.load(opponentName);
+			opponent.apply(engine.getBoard());
+		}
+
+		// the manager sends START when it has both setups
+		if (!analysis) {
+			printBoard();
+			io.flush();
+		}
+	}
+
+	/**
+	 * Places the AI pieces from 4 setup lines in printBoard() format
+	 * @throws Exception on unknown or unavailable rank
+	 */
+	public void readSetup() throws Exception
+	{
+		for (int y = 0; y < 4; y++) {
+			int yy = y;
+			if (Settings.topColor == Board.BLUE)
+				yy = 3 - y;
+
+			String row = io.nextLine();
+			for (int x = 0; x < 10 && x < row.length(); x++) {
+				int i;
+				for (i = 1; i < rank.length; i++)
+					if (rankchar[i] == row.charAt(x))
+						break;
+				Piece p = null;
+				for (int k = 0; k < engine.getBoard().getTraySize(); k++) {
+					Piece tp = engine.getBoard().getTrayPiece(k);
+					if (i < rank.length
+						&& tp.getColor() == Settings.topColor
+						&& tp.getRank() == rank[i]) {
+						p = tp;
+						break;
+					}
+				}
+				if (p == null)
+					throw new Exception("BasicAI.readSetup - No piece " + row.charAt(x) + " for (" + x + "," + y + ")");
+				engine.aiReturnPlace(p, new Spot(x, yy));
+			}
+		}
+	}
+
+	/**
+	 * Sets a search limit from a SETUP line option
+	 * @param option nodes=n, depth=n or level=n
+	 * @throws Exception on unrecognised option
+	 */
+	public static void setLimit(String option) throws Exception
+	{
+		String[] kv = option.split("=");
+		if (kv.length != 2)
+			throw new Exception("BasicAI.Setup - Unrecognised option " + option);
+
+		if (kv[0].compareTo("nodes") == 0)
+			Settings.nodeLimit = Long.parseLong(kv[1]);
+		else if (kv[0].compareTo("depth") == 0)
+			Settings.depthLimit = Integer.parseInt(kv[1]);
+		else if (kv[0].compareTo("level") == 0)
+			Settings.aiLevel = Integer.parseInt(kv[1]);
+		else
+			throw new Exception("BasicAI.Setup - Unrecognised option " + option);
 	}
 
-	public void printBoard()
+	private byte boardLines[] = new byte[4*11];
+
+	public void printBoard() throws IOException
 	{
 		for (int y = 0; y < 4; y++) {
 			int yy = y;
@@ -164,9 +347,10 @@ public class AITest extends View
 				yy = 3 - y;
 				
 			for (int x = 0; x < 10; x++) 
-				System.out.print(rankchar[engine.getBoardPiece(x,yy).getRank().ordinal()]);
-			System.out.println();
+				boardLines[y*11+x] = (byte)rankchar[engine.getBoardPiece(x,yy).getRank().ordinal()];
+			boardLines[y*11+10] = '\n';
 		}
+		io.write(boardLines, 0, boardLines.length);
 	}
 
 
@@ -223,8 +407,22 @@ public class AITest extends View
 	 */
 	public Move InterpretResult() throws Exception
 	{
-                String input = "";
-                input = scan.nextLine();
+		switch (io.readResult()) {
+		case Protocol.QUIT:
+			io.flush();
+			if (opponent != null)
+				opponent.record(engine.getBoard());
+			System.exit(0);
+			return null;
+		case Protocol.NO_MOVE:
+			return null;
+		}
+		return interpret(io.x, io.y, io.dir, io.multiplier,
+			io.ranks, io.attacker, io.defender);
+	}
+
+	public Move InterpretResult(String input) throws Exception
+	{
 		Vector<String> result = readTokens(input);
 
 		if (result.elementAt(0).compareTo("QUIT") == 0)
@@ -239,25 +437,45 @@ public class AITest extends View
 
 		int x = Integer.parseInt(result.elementAt(0));
 		int y = Integer.parseInt(result.elementAt(1));
-		String direction = result.elementAt(2);
-		if (Settings.topColor == Board.BLUE) {
-			y = 9 - y;
-			if (direction.compareTo("UP") == 0)
-				direction = "DOWN";
-			else if (direction.compareTo("DOWN") == 0)
-				direction = "UP";
-		}
+		int dir;
+		for (dir = 0; dir < directions.length; dir++)
+			if (result.elementAt(2).compareTo(directions[dir]) == 0)
+				break;
+		if (dir == directions.length)
+			throw new Exception("BasicAI.Move - Unrecognised direction " + result.elementAt(2));
 
 		int multiplier = 1;
-		String outcome = result.elementAt(3);
 		int outIndex = 3;
-		if (IsInteger(outcome))
+		if (IsInteger(result.elementAt(3)))
 		{
-			multiplier = Integer.parseInt(outcome);
-			outcome = result.elementAt(4);
+			multiplier = Integer.parseInt(result.elementAt(3));
 			outIndex = 4;
 		}
-		int p[] = Move(x,y,direction, multiplier);
+
+		boolean ranks = result.size() >= outIndex + 3;
+		return interpret(x, y, dir, multiplier, ranks,
+			ranks ? result.elementAt(outIndex+1).charAt(0) : 0,	//ranks are 1 char long
+			ranks ? result.elementAt(outIndex+2).charAt(0) : 0);
+	}
+
+	private static final int dx[] = { 0, 0, -1, 1 };
+	private static final int dy[] = { -1, 1, 0, 0 };
+
+	/**
+	 * Makes a Move from a parsed result line and reveals
+	 * the ranks of a fight
+	 * @param dir index in directions
+	 */
+	private Move interpret(int x, int y, int dir, int multiplier,
+		boolean ranks, char attackerrank, char defenderrank) throws Exception
+	{
+		if (Settings.topColor == Board.BLUE) {
+			y = 9 - y;
+			if (dir < 2)
+				dir = 1 - dir;	// UP is DOWN
+		}
+
+		int p[] = { x + dx[dir] * multiplier, y + dy[dir] * multiplier };
 
 		Piece attacker = engine.getBoardPiece(x,y);
 		if (attacker == null)
@@ -265,11 +483,10 @@ public class AITest extends View
 
 		Piece defender = engine.getBoardPiece(p[0],p[1]);
 		
-		if (result.size() >= outIndex + 3)
+		if (ranks)
 		{
 			if (defender == null)
 				throw new Exception("BasicAI.InterpretResult - Result suggests a defender at ("+p[0]+","+p[1]+"), but none found");
-			char attackerrank = result.elementAt(outIndex+1).charAt(0); //ranks are 1 char long
 			int i;
 			for ( i = 0; i < rank.length; i++)
 				if (rankchar[i] == attackerrank)
@@ -280,7 +497,6 @@ public class AITest extends View
 			if (!attacker.isRevealed())
 				attacker.revealRank(rank[i]);
 
-			char defenderrank = result.elementAt(outIndex+2).charAt(0); //ranks are 1 char long
 			for ( i = 0; i < rank.length; i++)
 				if (rankchar[i] == defenderrank)
 					break;
@@ -296,10 +512,16 @@ public class AITest extends View
 		return new Move(attacker, new Spot(x, y), new Spot(p[0], p[1]));
 	}
 
-	public void moveInit(Move m)
+	/**
+	 * Formats a packed move as in the result line
+	 */
+	public static String formatMove(int m)
 	{
-		int fromy = m.getFromY();
-		int toy =  m.getToY();
+		if (m == 0)
+			return "NO_MOVE";
+
+		int fromy = Move.unpackFromY(m);
+		int toy =  Move.unpackToY(m);
 		if (Settings.topColor == Board.BLUE) {
 			// ai pieces always start at 0 (top)
 			// but aitest has RED pieces at top
@@ -312,18 +534,28 @@ public class AITest extends View
 			dirIndex = 0;
 		if (fromy < toy)
 			dirIndex = 1;
-		if (m.getFromX() > m.getToX())
+		if (Move.unpackFromX(m) > Move.unpackToX(m))
 			dirIndex = 2;
-		if (m.getFromX() < m.getToX())
+		if (Move.unpackFromX(m) < Move.unpackToX(m))
 			dirIndex = 3;
-		System.out.print(""+m.getFromX() + " " + fromy + " " + directions[dirIndex]);
+		String s = ""+Move.unpackFromX(m) + " " + fromy + " " + directions[dirIndex];
 		int ydiff = Math.abs(fromy - toy);
-		int xdiff = Math.abs(m.getFromX() - m.getToX());
+		int xdiff = Math.abs(Move.unpackFromX(m) - Move.unpackToX(m));
 		if (xdiff > 1)
-			System.out.print(" " + xdiff);
+			s += " " + xdiff;
 		if (ydiff > 1)
-			System.out.print(" " + ydiff);
-		System.out.println();
+			s += " " + ydiff;
+		return s;
+	}
+
+	public void moveInit(Move m)
+	{
+		try {
+			io.println(formatMove(m.getMove()));
+			io.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
 		try {
 		InterpretResult();
@@ -367,4 +599,10 @@ public class AITest extends View
 		if (wview != null)
 			wview.update();
 	}
+
+	public void reveal(Move m)
+	{
+		if (wview != null)
+			wview.reveal(m);
+	}
 }
@@ -0,0 +1,244 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Batch analysis (-b file ...).
+//
+// Each file is a game record in the format of the analysis mode
+// (AITest -a): the SETUP line, the 4 lines of AI setup and the
+// result lines of both sides.  Every ANALYZE [k] line is a position
+// to search; a record without one is searched at its last position.
+// The search limits are those of the command line (-n, -d, -l, -s),
+// so with -n or -d every position gets the same fixed budget and
+// the results can be compared between versions of the AI.
+//
+// The positions are searched in parallel (-p<threads>, one per
+// processor by default) and one line is printed per line of the
+// deepest iteration, in the order of the input:
+//
+// file,ply,color,line,move,value,depth,nodes,ms,pv
+//
+// or with -j one JSON object per line with the same fields.
+// The value is from the view of the AI.
+//
+// A position whose replay or search fails gets one row with the
+// move ERROR and the exception as its pv, and the run exits with 1
+// once every row is printed.
+//
+// Settings.topColor is shared by all searches, so the positions
+// with the AI on red are searched first and then those with the AI
+// on blue.
+
+public class Batch
+{
+	public static int threads = Runtime.getRuntime().availableProcessors();
+	public static boolean json = false;
+
+	private static class Position
+	{
+		String file;
+		String color;
+		int ply;		// result lines replayed
+		int multiPV;
+		ArrayList<String> record = new ArrayList<String>();
+		String result = null;
+	}
+
+	private ArrayList<Position> positions = new ArrayList<Position>();
+	private AtomicInteger next = new AtomicInteger();
+	private int errors = 0;
+
+	public Batch(String[] files) throws IOException
+	{
+		for (String f : files)
+			read(f);
+	}
+
+	private void read(String file) throws IOException
+	{
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		ArrayList<String> record = new ArrayList<String>();
+		boolean analyzed = false;
+		int ply = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.equals(""))
+				continue;
+			if (line.equals("QUIT"))
+				break;
+			if (line.startsWith("ANALYZE")) {
+				String[] t = line.split("\\s+");
+				add(file, record, ply, t.length > 1 ? Integer.parseInt(t[1]) : 1);
+				analyzed = true;
+				continue;
+			}
+			record.add(line);
+			if (record.size() > 5)
+				ply++;
+		}
+		in.close();
+		if (!analyzed)
+			add(file, record, ply, 1);
+	}
+
+	private void add(String file, ArrayList<String> record, int ply, int multiPV)
+	{
+		if (record.size() < 5)
+			return;
+		Position p = new Position();
+		p.file = file;
+		p.color = record.get(0).split("\\s+")[0];
+		p.ply = ply;
+		p.multiPV = multiPV;
+		p.record.addAll(record);
+		positions.add(p);
+	}
+
+	public void run(PrintStream out)
+	{
+		if (!json)
+			out.println("file,ply,color,line,move,value,depth,nodes,ms,pv");
+
+		search("RED");
+		search("BLUE");
+
+		for (Position p : positions)
+			if (p.result != null)
+				out.print(p.result);
+		out.flush();
+		if (errors != 0) {
+			System.err.println(errors + " of " + positions.size() + " positions failed");
+			System.exit(1);
+		}
+	}
+
+	// searches the positions with the AI on color
+	private void search(final String color)
+	{
+		next.set(0);
+		Thread[] worker = new Thread[Math.max(1, threads)];
+		for (int i = 0; i < worker.length; i++) {
+			worker[i] = new Thread("Batch " + i)
+			{
+				public void run()
+				{
+					int n;
+					while ((n = next.getAndIncrement()) < positions.size()) {
+						Position p = positions.get(n);
+						if (p.color.equals(color))
+							search(p);
+					}
+				}
+			};
+			worker[i].start();
+		}
+		for (Thread t : worker)
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+	}
+
+	private void search(Position p)
+	{
+		long start = System.currentTimeMillis();
+		try {
+			String header = "";
+			for (int i = 0; i < 5; i++)
+				header += p.record.get(i) + "\n";
+			AITest game = new AITest(new Protocol(
+				new ByteArrayInputStream(header.getBytes()), null));
+			for (int i = 5; i < p.record.size(); i++)
+				game.replay(p.record.get(i));
+
+			start = System.currentTimeMillis();
+			ArrayList<AI.Line> lines = game.analyze(p.multiPV);
+			long ms = System.currentTimeMillis() - start;
+
+			int depth = 0;
+			for (AI.Line line : lines)
+				depth = Math.max(depth, line.depth);
+
+			String s = "";
+			int k = 0;
+			for (AI.Line line : lines) {
+				if (line.depth != depth)
+					continue;
+				String pv = "";
+				for (int m : line.pv)
+					pv += (pv.equals("") ? "" : ", ") + AITest.formatMove(m);
+				s += format(p, ++k, AITest.formatMove(line.move),
+					line.value, line.depth, line.nodes, ms, pv);
+			}
+			if (k == 0)
+				s = format(p, 0, "NO_MOVE", 0, 0, 0, ms, "");
+			p.result = s;
+		} catch (Throwable e) {
+			// an Error (stack overflow, assertion) of one position
+			// must not end its worker and lose the positions after it
+			p.result = format(p, 0, "ERROR", 0, 0, 0,
+				System.currentTimeMillis() - start, e.toString());
+			synchronized (this) {
+				errors++;
+				System.err.println(p.file + " ply " + p.ply + ": " + e);
+			}
+		}
+	}
+
+	private String format(Position p, int line, String move, int value,
+		int depth, long nodes, long ms, String pv)
+	{
+		if (json)
+			return "{\"file\":" + quote(p.file)
+				+ ",\"ply\":" + p.ply
+				+ ",\"color\":" + quote(p.color)
+				+ ",\"line\":" + line
+				+ ",\"move\":" + quote(move)
+				+ ",\"value\":" + value
+				+ ",\"depth\":" + depth
+				+ ",\"nodes\":" + nodes
+				+ ",\"ms\":" + ms
+				+ ",\"pv\":" + quote(pv) + "}\n";
+
+		return csv(p.file) + "," + p.ply + "," + p.color + "," + line
+			+ "," + move + "," + value + "," + depth + "," + nodes
+			+ "," + ms + "," + csv(pv) + "\n";
+	}
+
+	private static String quote(String s)
+	{
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static String csv(String s)
+	{
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0)
+			return s;
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -48,7 +48,7 @@ public class Client implements MessageHandler
 		{
 			int x, y, color, rank;
 
-			switch (Message.values()[type])
+			switch (Message.get(type))
 			{
 			case SETUP:
 				x = in.readInt();
@@ -66,8 +66,35 @@ public class Client implements MessageHandler
 				x = in.readInt();
 				color = in.readInt();
 				rank = in.readInt();
-				// view.update(Board.IN_TRAY, new Piece(x, color, Rank.values()[rank]));
-				view.update(Board.IN_TRAY, new Piece(color, Rank.values()[rank]));
+				view.update(Board.IN_TRAY, new Piece(x, color, Rank.values()[rank]));
+				return true;
+			case DELTA:
+				// changed squares, then changed tray slots
+				// (see server Game.updateDelta())
+				int n = Connection.readVarint(in);
+				for (int i=0;i<n;i++)
+				{
+					int s = Connection.readVarint(in);
+					color = Connection.readVarint(in) - 1;
+					rank = Connection.readVarint(in);
+					view.update(new Spot(s/10, s%10), new Piece(color, Rank.values()[rank]));
+				}
+				n = Connection.readVarint(in);
+				for (int i=0;i<n;i++)
+				{
+					x = Connection.readVarint(in) % 40;	// slot of its color
+					color = Connection.readVarint(in) - 1;
+					rank = Connection.readVarint(in);
+					view.update(Board.IN_TRAY, new Piece(x, color, Rank.values()[rank]));
+				}
+				return true;
+			case REVEAL:
+				// the attacker, before the updates of its attack
+				x = in.readInt();
+				y = in.readInt();
+				color = in.readInt();
+				rank = in.readInt();
+				view.reveal(new Spot(x, y), new Piece(color, Rank.values()[rank]));
 				return true;
 			case GAMEOVER:
 				x = in.readInt();
@@ -0,0 +1,601 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cjmalloy.stratego.Grid;
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
+import com.cjmalloy.stratego.Settings;
+import com.cjmalloy.stratego.UndoMove;
+
+// Endgame solver.
+//
+// With few pieces left, the heuristic search often shuffles its
+// pieces until the Two Squares or More Squares rule forces
+// progress, because the win is beyond its horizon and every
+// waiting move has the same value.  But once every opponent piece
+// is known, the position is a game of perfect information, and a
+// forced win can be proven.
+//
+// The solver searches for the shortest forced win of the AI over a
+// compact copy of the board (one int per square), deepening two
+// plies at a time.  A transposition table keeps, for every position
+// searched, either the exact number of plies to the win or the
+// depth to which there is none.  The same few pieces reach the same
+// positions in many orders, so the table is what makes the search
+// feasible: the proof of a Two walking to the flag past a Three is
+// a few thousand positions, not the millions of lines a tree
+// search would visit.
+//
+// The opponent may make any move, including moves that the Two
+// Squares rule forbids, and is assumed to see all the AI pieces.
+// The AI may not move a piece straight back where it came from,
+// which is stricter than the Two Squares rule.  So a proof is a win
+// under the actual rules.  The shortest win never repeats a
+// position, and it is one ply shorter after each move, so the AI
+// does not wander.  Unmoved unknown opponent pieces are allowed when
+// all of the opponent movable pieces are accounted for; they are
+// taken to be bombs, which is the worst case for the AI.
+//
+// The positions of a proof are kept with the number of plies to the
+// win and the winning move, and are appended to ai.end in the
+// working directory and read again by later games, except with a
+// seed (-s), which must not depend on earlier games.  At most
+// maxProven positions are kept: when there are more, the table
+// starts over, and ai.end is rewritten by the next proof.
+
+public class Endgame
+{
+	public static int maxMovable = 8;	// movable pieces of both sides
+	public static int maxPly = 60;
+	public static int maxNodes = 2000000;	// if the move has no node limit
+	public static String file = "ai.end";
+	public static int maxProven = 200000;	// positions kept (16 bytes each in ai.end)
+
+	private static final int INF = 1 << 30;
+	private static final int MAX_MOVES = 40 * 18;	// a Nine has up to 18
+	private static final int[] dir = { -11, -1,  1, 11 };
+	private static final int FLAG = Rank.FLAG.ordinal();
+	private static final int BOMB = Rank.BOMB.ordinal();
+	private static final int NINE = Rank.NINE.ordinal();
+	private static final long SIDE = 0x5bd1e9955bd1e995L;
+
+	// key -> depth << 32 | move
+	private static volatile ConcurrentHashMap<Long, Long> proven = null;
+	private static boolean rewrite = false;	// ai.end is not a copy of proven
+
+	// ai.end begins with MAGIC and KEY_VERSION.  KEY_VERSION is part
+	// of every key, and must change with the key or the board code.
+	private static final long MAGIC = 0x5354524154454E44L;	// "STRATEND"
+	private static final long KEY_VERSION = 0x11;
+
+	// a square is -1 (off the board or a lake), 0 (empty)
+	// or (color + 1) << 4 | rank
+	private int[] sq = new int[133];
+	private int[][] fight = new int[16][16];
+	private long hash;
+	private long rules;
+	private int ai;
+	private int rootForbid;
+	private ArrayList<Integer> excluded = new ArrayList<Integer>();
+
+	// transposition table: exact plies to the win << 32 | move,
+	// or -(depth + 1) if there is no win within depth plies
+	// (allocated by load(), because most games never get here)
+	private static final int TT_SIZE = 1 << 19;
+	private long[] ttKey = null;
+	private long[] ttValue = null;
+
+	// make() undo stack
+	private int[] uFrom = new int[maxPly + 2];
+	private int[] uTo = new int[maxPly + 2];
+	private int[] uFrom2 = new int[maxPly + 2];
+	private int[] uTo2 = new int[maxPly + 2];
+	private long[] uHash = new long[maxPly + 2];
+
+	private int[] moves = null;
+	private long nodes;
+	private long nodeLimit;
+	private long stopTime;
+	private boolean aborted;
+	private int rootMove;
+	public int depth;	// of the last win found
+
+	// Copies the position if it can be solved:
+	// the AI is to move, every piece of the opponent is known
+	// (or an unmoved piece that can only be a bomb or the flag)
+	// and few movable pieces remain.
+	public boolean load(TestingBoard b)
+	{
+		ai = Settings.topColor;
+		int opp = 1 - ai;
+		if (b.bturn != ai)
+			return false;
+
+		int[] unknown = new int[16];
+		for (int r = 1; r <= 10; r++)
+			unknown[r] = Rank.getRanks(Rank.toRank(r));
+		for (int i = 0; i < b.getTraySize(); i++) {
+			Piece p = b.getTrayPiece(i);
+			if (p.getColor() == opp && p.getRank().ordinal() <= 10)
+				unknown[p.getRank().ordinal()]--;
+		}
+
+		hash = 0;
+		int movable = 0;
+		for (int i = 0; i < sq.length; i++) {
+			sq[i] = -1;
+			if (i < 12 || i > 120 || !Grid.isValid(i))
+				continue;
+			Piece p = b.getPiece(i);
+			if (p == null) {
+				sq[i] = 0;
+				continue;
+			}
+			int r;
+			if (p.getColor() == ai)
+				r = p.getRank().ordinal();
+			else if (p.isKnown() && !p.isSuspectedRank()) {
+				r = p.getRank().ordinal();
+				if (r <= 10)
+					unknown[r]--;
+			} else if (!p.hasMoved())
+				r = BOMB;
+			else
+				return false;
+			if (r < 1 || r > FLAG)
+				return false;
+			if (r <= 10)
+				movable++;
+			sq[i] = (p.getColor() + 1) << 4 | r;
+			hash ^= zobrist(i, sq[i]);
+		}
+		for (int r = 1; r <= 10; r++)
+			if (unknown[r] > 0)
+				return false;
+		if (movable > maxMovable)
+			return false;
+
+		for (int a = 1; a <= FLAG; a++)
+			for (int d = 1; d <= FLAG; d++)
+				fight[a][d] = Rank.toRank(a).winFight(Rank.toRank(d));
+
+		// the rules, and the version of the keys, are part of every key
+		rules = mix(KEY_VERSION << 16
+			| (Settings.bDefendAdvantage ? 1 : 0)
+			| (Settings.bOneTimeBombs ? 2 : 0)
+			| (Settings.bNoMoveDefender ? 4 : 0)
+			| ai << 3);
+
+		rootForbid = 0;
+		UndoMove m = b.getLastMove(2);
+		if (m != UndoMove.NullMove && m != null)
+			rootForbid = Move.packMove(m.getTo(), m.getFrom());
+
+		if (ttKey == null) {
+			ttKey = new long[TT_SIZE];
+			ttValue = new long[TT_SIZE];
+			moves = new int[(maxPly + 2) * MAX_MOVES];
+		}
+
+		excluded.clear();
+		return true;
+	}
+
+	// The moves of the AI in the position, to be checked
+	// against the rules that depend on the history of the game.
+	public ArrayList<Integer> rootMoves()
+	{
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		int n = generate(ai, rootForbid, 0);
+		for (int i = 0; i < n; i++)
+			list.add(moves[i]);
+		return list;
+	}
+
+	public void exclude(int m)
+	{
+		excluded.add(m);
+	}
+
+	// Returns a move that wins by force, or 0.
+	// The search stops after nodeLimit nodes or at stopTime (if not 0).
+	public int solve(long nodeLimit, long stopTime)
+	{
+		load();
+		this.nodeLimit = nodeLimit;
+		this.stopTime = stopTime;
+		nodes = 0;
+		aborted = false;
+
+		Long p = proven.get(key(0, rootForbid));
+		if (p != null && !excluded.contains((int)(long)p)) {
+			depth = (int)(p >> 32);
+			return (int)(long)p;
+		}
+
+		// the AI wins on its own move, after an odd number of plies
+		for (int r = 1; r < maxPly; r += 2) {
+			int d = search(0, r, rootForbid);
+			if (aborted)
+				return 0;
+			if (d != INF) {
+				reserve();
+				ArrayList<Long> added = new ArrayList<Long>();
+				proven.put(key(0, rootForbid), (long)d << 32 | rootMove);
+				added.add(key(0, rootForbid));
+				added.add((long)d << 32 | rootMove);
+				make(rootMove, 0);
+				save(1, reverse(rootMove), added);
+				unmake(0);
+				append(added);
+				depth = d;
+				return rootMove;
+			}
+		}
+		return 0;
+	}
+
+	public long nodes()
+	{
+		return nodes;
+	}
+
+	// Returns the least number of plies in which the AI wins
+	// from the position at ply, if it is at most r, otherwise INF.
+	// forbid is the move the AI may not make next, which is
+	// part of the key of the opponent positions too, because
+	// their replies depend on it.
+	private int search(int ply, int r, int forbid)
+	{
+		int side = ply % 2 == 0 ? ai : 1 - ai;
+		long key = key(ply, forbid);
+		int slot = (int)key & (TT_SIZE - 1);
+		if (ply != 0) {
+			if (ttKey[slot] == key) {
+				long v = ttValue[slot];
+				if (v >= 0) {
+					int d = (int)(v >> 32);
+					return d <= r ? d : INF;
+				}
+				if (-v - 1 >= r)
+					return INF;
+			}
+			if (side == ai) {
+				Long p = proven.get(key);
+				if (p != null) {
+					int d = (int)(p >> 32);
+					return d <= r ? d : INF;
+				}
+			}
+		}
+
+		if (++nodes > nodeLimit
+			|| (stopTime != 0 && (nodes & 1023) == 0
+				&& System.currentTimeMillis() > stopTime)) {
+			aborted = true;
+			return INF;
+		}
+
+		int base = ply * MAX_MOVES;
+		int n = generate(side, side == ai ? forbid : 0, base);
+
+		// the opponent cannot move: the AI wins
+		if (side != ai && n == 0)
+			return store(ply, slot, key, 0, 0);
+		if (r <= 0)
+			return INF;
+
+		// try the move of an earlier iteration first
+		if (ttKey[slot] == key && ttValue[slot] >= 0)
+			for (int k = 1; k < n; k++)
+				if (moves[base + k] == (int)ttValue[slot]) {
+					moves[base + k] = moves[base];
+					moves[base] = (int)ttValue[slot];
+					break;
+				}
+
+		int best = side == ai ? INF : 0;
+		int bestMove = 0;
+		for (int k = 0; k < n; k++) {
+			int m = moves[base + k];
+			if (ply == 0 && excluded.contains(m))
+				continue;
+			boolean flag = make(m, ply);
+			int v;
+			if (flag)
+				v = side == ai ? 1 : INF;
+			else if (side == ai) {
+				int bound = Math.min(r, best - 1) - 1;
+				int d = bound < 0 ? INF : search(ply + 1, bound, reverse(m));
+				v = d == INF ? INF : d + 1;
+			} else {
+				int d = search(ply + 1, r - 1, forbid);
+				v = d == INF ? INF : d + 1;
+			}
+			unmake(ply);
+			if (aborted)
+				return INF;
+
+			if (side == ai) {
+				if (v < best) {
+					best = v;
+					bestMove = m;
+					if (best == 1)
+						break;
+				}
+			} else if (v == INF) {
+				best = INF;
+				break;
+			} else
+				best = Math.max(best, v);
+		}
+
+		if (ply == 0) {
+			rootMove = bestMove;
+			return best;
+		}
+		if (best == INF) {
+			ttKey[slot] = key;
+			ttValue[slot] = -(r + 1);
+			return INF;
+		}
+		return store(ply, slot, key, best, bestMove);
+	}
+
+	private int store(int ply, int slot, long key, int d, int move)
+	{
+		ttKey[slot] = key;
+		ttValue[slot] = (long)d << 32 | move;
+		return d;
+	}
+
+	// Adds the positions of the proof to proven (and added),
+	// following the winning move of the AI and every reply.
+	private void save(int ply, int forbid, ArrayList<Long> added)
+	{
+		int side = ply % 2 == 0 ? ai : 1 - ai;
+		long key = key(ply, forbid);
+		if (side == ai) {
+			if (proven.containsKey(key))
+				return;
+			int slot = (int)key & (TT_SIZE - 1);
+			if (ttKey[slot] != key || ttValue[slot] < 0)
+				return;
+			long v = ttValue[slot];
+			int m = (int)v;
+			proven.put(key, v);
+			added.add(key);
+			added.add(v);
+			if (!make(m, ply))
+				save(ply + 1, reverse(m), added);
+			unmake(ply);
+		} else {
+			int base = ply * MAX_MOVES;
+			int n = generate(side, 0, base);
+			for (int k = 0; k < n; k++) {
+				int m = moves[base + k];
+				if (!make(m, ply))
+					save(ply + 1, forbid, added);
+				unmake(ply);
+			}
+		}
+	}
+
+	static int reverse(int m)
+	{
+		return Move.packMove(Move.unpackTo(m), Move.unpackFrom(m));
+	}
+
+	private long key(int ply, int forbid)
+	{
+		long k = hash ^ rules;
+		if (ply % 2 != 0)
+			k ^= SIDE;
+		if (forbid != 0)
+			k ^= mix(0x200000L | forbid);
+		return k;
+	}
+
+	// Generates the moves of color into moves[base...],
+	// except forbid.  Returns the number of moves.
+	private int generate(int color, int forbid, int base)
+	{
+		int n = base;
+		int own = color + 1;
+		for (int i = 12; i <= 120; i++) {
+			int fc = sq[i];
+			if (fc <= 0 || fc >> 4 != own || (fc & 15) >= BOMB)
+				continue;
+			for (int d : dir) {
+				int t = i + d;
+				while (sq[t] == 0) {
+					n = add(n, i, t, forbid);
+					if ((fc & 15) != NINE)
+						break;
+					t += d;
+				}
+				if (sq[t] > 0 && sq[t] >> 4 != own)
+					n = add(n, i, t, forbid);
+			}
+		}
+		return n - base;
+	}
+
+	private int add(int n, int from, int to, int forbid)
+	{
+		int m = Move.packMove(from, to);
+		if (m != forbid)
+			moves[n++] = m;
+		return n;
+	}
+
+	// Makes the move at ply.  Returns true if it captures a flag.
+	private boolean make(int m, int ply)
+	{
+		int from = Move.unpackFrom(m);
+		int to = Move.unpackTo(m);
+		int fc = sq[from];
+		int tc = sq[to];
+		uFrom[ply] = from;
+		uTo[ply] = to;
+		uFrom2[ply] = fc;
+		uTo2[ply] = tc;
+		uHash[ply] = hash;
+
+		sq[from] = 0;
+		hash ^= zobrist(from, fc);
+		if (tc == 0) {
+			sq[to] = fc;
+			hash ^= zobrist(to, fc);
+			return false;
+		}
+
+		hash ^= zobrist(to, tc);
+		int result = fight[fc & 15][tc & 15];
+		if (result == Rank.WINS) {
+			sq[to] = fc;
+			hash ^= zobrist(to, fc);
+			return (tc & 15) == FLAG;
+		}
+		if (result == Rank.EVEN)
+			sq[to] = 0;
+		else if (Settings.bNoMoveDefender || (tc & 15) == BOMB) {
+			sq[to] = tc;
+			hash ^= zobrist(to, tc);
+		} else {
+			sq[to] = 0;
+			sq[from] = tc;
+			hash ^= zobrist(from, tc);
+		}
+		return false;
+	}
+
+	private void unmake(int ply)
+	{
+		sq[uFrom[ply]] = uFrom2[ply];
+		sq[uTo[ply]] = uTo2[ply];
+		hash = uHash[ply];
+	}
+
+	static long zobrist(int i, int code)
+	{
+		return mix((long)i << 8 | code);
+	}
+
+	// splitmix64: fixed keys, so that ai.end is valid in every run
+	static long mix(long z)
+	{
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	// ai.end is MAGIC and KEY_VERSION followed by a list of
+	// (key, value) longs.  A file without the header, or with
+	// another version, was written with other keys: it is ignored,
+	// and replaced by the next proof.
+
+	private static synchronized void load()
+	{
+		if (proven != null)
+			return;
+		ConcurrentHashMap<Long, Long> map = new ConcurrentHashMap<Long, Long>();
+		if (Settings.seed == 0 && new File(file).exists()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					long n = new File(file).length() / 16 - 1;
+					if (n < 0 || in.readLong() != MAGIC || in.readLong() != KEY_VERSION) {
+						System.err.println(file + ": old version, ignored");
+						rewrite = true;
+						n = 0;
+					} else if (n > maxProven) {
+						n = maxProven;
+						rewrite = true;
+					}
+					for (long i = 0; i < n; i++)
+						map.put(in.readLong(), in.readLong());
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				System.err.println(file + ": " + e);
+			}
+		}
+		proven = map;
+	}
+
+	// Makes room for a proof.  A proof is a few hundred positions,
+	// so the table may go a little over maxProven.
+	private static synchronized void reserve()
+	{
+		if (proven.size() < maxProven)
+			return;
+		proven.clear();
+		rewrite = true;
+	}
+
+	// Appends the positions of a proof to ai.end,
+	// or rewrites it from proven if it is out of date.
+	private static synchronized void append(ArrayList<Long> added)
+	{
+		if (Settings.seed != 0 || added.size() == 0)
+			return;
+		try {
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(b);
+			boolean create = rewrite || !new File(file).exists();
+			if (create) {
+				out.writeLong(MAGIC);
+				out.writeLong(KEY_VERSION);
+				for (Long key : proven.keySet()) {
+					Long v = proven.get(key);
+					if (v == null)
+						continue;
+					out.writeLong(key);
+					out.writeLong(v);
+				}
+			} else
+				for (long v : added)
+					out.writeLong(v);
+			FileOutputStream f = new FileOutputStream(file, !create);
+			try {
+				f.write(b.toByteArray());
+			} finally {
+				f.close();
+			}
+			rewrite = false;
+		} catch (IOException e) {
+			System.err.println(file + ": " + e);
+		}
+	}
+}
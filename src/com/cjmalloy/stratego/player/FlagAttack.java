@@ -0,0 +1,651 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.util.ArrayList;
+
+import com.cjmalloy.stratego.Grid;
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
+import com.cjmalloy.stratego.Settings;
+import com.cjmalloy.stratego.UndoMove;
+
+// Forced flag capture.
+//
+// The flag attack is driven by plans (genDestFlag, flagBombTarget)
+// that bring the attackers closer, and the capture itself must be
+// within the depth of the search.  When possibleFlag() has narrowed
+// the opponent flag down to one structure and an AI piece is a few
+// moves away from it, this proof search decides if the flag can be
+// taken by force and returns the first move of the line.
+//
+// It is a depth-first proof-number search (df-pn) over a compact
+// copy of the board.  Each position has a proof number (the least
+// number of positions that must still be proven for the AI to win)
+// and a disproof number (likewise for the opponent), and the search
+// always expands the most proving position, so it goes straight
+// down the line of a forced capture and only looks at the replies
+// that can stop it.  The depth is limited to maxPly plies and
+// deepened two plies at a time, so the capture found is the
+// shortest, and the next move is a shorter proof.
+//
+// A proof rests on two guesses: that the flag is where possibleFlag()
+// thinks it is, and that every unmoved piece suspected to be a bomb
+// is a bomb.  The second favours the AI: a suspected bomb does not
+// move, so it cannot block an attacker, and an Eight takes it.  If
+// either guess is wrong, the capture may fail.  Otherwise the
+// opponent is given every benefit of the doubt:
+// - a piece of unknown rank wins every fight, in both directions,
+//	and may move like a Nine while unknown Nines remain (and is
+//	then a Nine);
+// - the opponent may pass;
+// - the opponent wins if it takes the AI flag.
+//
+// To keep the tree small, the AI moves only the pieces that can
+// still reach the flag in time, and only closer, and the opponent
+// moves only the pieces that can reach the flag, the AI flag, or an
+// AI attacker (or a square on its way) in the plies left.  The
+// other moves of the opponent cannot change the outcome within the
+// depth, and passing stands for them.
+
+public class FlagAttack
+{
+	public static int maxPly = 11;
+	public static int maxNodes = 200000;	// if the move has no node limit
+
+	private static final int INF = 1 << 30;
+	private static final int MAX_MOVES = 40 * 18;	// a Nine has up to 18
+	private static final int[] dir = { -11, -1,  1, 11 };
+	private static final int NINE = Rank.NINE.ordinal();
+	private static final int BOMB = Rank.BOMB.ordinal();
+	private static final int FLAG = Rank.FLAG.ordinal();
+	private static final int UNKNOWN = Rank.UNKNOWN.ordinal();
+	private static final long SIDE = 0x5bd1e9955bd1e995L;
+	private static final long[] plies = new long[64];
+	static {
+		for (int r = 0; r < plies.length; r++)
+			plies[r] = Endgame.mix(0x400000L | r);
+	}
+
+	// make()
+	private static final int NONE = 0;
+	private static final int WIN = 1;	// the AI took the flag
+	private static final int LOSS = 2;	// the opponent took the AI flag
+
+	// a square is -1 (off the board or a lake), 0 (empty)
+	// or (color + 1) << 4 | rank, where rank is UNKNOWN
+	// for an opponent piece that could be anything
+	private int[] sq = new int[133];
+	private int[][] fight = new int[16][16];
+	private long hash;
+	private long rules;
+	private int ai;
+	private int target;		// the opponent flag
+	private int aiFlag;		// or 0
+	private boolean unknownNine;
+	private int rootForbid;
+	private ArrayList<Integer> excluded = new ArrayList<Integer>();
+
+	// transposition table: the key includes the plies left.
+	// A slot of two entries keeps a solved position rather than
+	// one that is not, so a proof is not lost to a collision.
+	// (allocated by load(), because most games never get here)
+	private static final int TT_SIZE = 1 << 18;
+	private long[] ttKey = null;
+	private int[] ttPn = null;
+	private int[] ttDn = null;
+	private int[] ttMove = null;
+
+	// make() undo stack
+	private int[] uFrom = new int[maxPly + 2];
+	private int[] uTo = new int[maxPly + 2];
+	private int[] uFrom2 = new int[maxPly + 2];
+	private int[] uTo2 = new int[maxPly + 2];
+	private long[] uHash = new long[maxPly + 2];
+
+	private int[] moves = null;
+	private int[] childPn = null;
+	private int[] childDn = null;
+	private int[] attackers = new int[40];
+	private int nAttackers;
+
+	private long nodes;
+	private long nodeLimit;
+	private long stopTime;
+	private boolean aborted;
+	private int pn;		// of the last position searched
+	private int dn;
+	public int depth;	// of the last capture found
+	public ArrayList<Integer> line = new ArrayList<Integer>();
+
+	// Copies the position if the AI is to move, the opponent
+	// flag is known (or the last possible flag) and an AI piece
+	// can reach it within maxPly.
+	public boolean load(TestingBoard b)
+	{
+		ai = Settings.topColor;
+		int opp = 1 - ai;
+		if (b.bturn != ai)
+			return false;
+
+		hash = 0;
+		target = 0;
+		aiFlag = 0;
+		for (int i = 0; i < sq.length; i++) {
+			sq[i] = -1;
+			if (i < 12 || i > 120 || !Grid.isValid(i))
+				continue;
+			Piece p = b.getPiece(i);
+			if (p == null) {
+				sq[i] = 0;
+				continue;
+			}
+			int r = p.getRank().ordinal();
+			if (p.getColor() == ai) {
+				if (r == FLAG)
+					aiFlag = i;
+			} else if (r == FLAG) {
+
+		// possibleFlag() always picks a flag, but it is
+		// made known only when it is the last structure
+		// that could contain the flag (see makeFlagKnown())
+
+				if (target != 0 || !p.isKnown())
+					return false;
+				target = i;
+			} else if ((!p.isKnown() || p.isSuspectedRank())
+				&& (r != BOMB || p.hasMoved()))
+				r = UNKNOWN;
+			if (r < 1 || r > UNKNOWN)
+				return false;
+			sq[i] = (p.getColor() + 1) << 4 | r;
+			hash ^= Endgame.zobrist(i, sq[i]);
+		}
+		if (target == 0)
+			return false;
+		unknownNine = b.unknownRankAtLarge(opp, Rank.NINE) != 0;
+		if (distance() > (maxPly + 1) / 2)
+			return false;
+
+		for (int a = 1; a <= UNKNOWN; a++)
+			for (int d = 1; d <= UNKNOWN; d++)
+				if (d == UNKNOWN)
+					fight[a][d] = Rank.LOSES;
+				else if (a == UNKNOWN)
+					fight[a][d] = Rank.WINS;
+				else
+					fight[a][d] = Rank.toRank(a).winFight(Rank.toRank(d));
+
+		rules = Endgame.mix(0x300000L
+			| (Settings.bDefendAdvantage ? 1 : 0)
+			| (Settings.bOneTimeBombs ? 2 : 0)
+			| (Settings.bNoMoveDefender ? 4 : 0)
+			| ai << 3
+			| (unknownNine ? 16 : 0));
+
+		rootForbid = 0;
+		UndoMove m = b.getLastMove(2);
+		if (m != UndoMove.NullMove && m != null)
+			rootForbid = Move.packMove(m.getTo(), m.getFrom());
+
+		if (ttKey == null) {
+			ttKey = new long[TT_SIZE];
+			ttPn = new int[TT_SIZE];
+			ttDn = new int[TT_SIZE];
+			ttMove = new int[TT_SIZE];
+			moves = new int[(maxPly + 2) * MAX_MOVES];
+			childPn = new int[(maxPly + 2) * MAX_MOVES];
+			childDn = new int[(maxPly + 2) * MAX_MOVES];
+		}
+
+		excluded.clear();
+		return true;
+	}
+
+	// The moves of the AI in the position, to be checked
+	// against the rules that depend on the history of the game.
+	public ArrayList<Integer> rootMoves()
+	{
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		int n = generate(0, maxPly, rootForbid);
+		for (int i = 0; i < n; i++)
+			list.add(moves[i]);
+		return list;
+	}
+
+	public void exclude(int m)
+	{
+		excluded.add(m);
+	}
+
+	public long nodes()
+	{
+		return nodes;
+	}
+
+	// Returns the first move of a forced capture of the flag, or 0.
+	// The search stops after nodeLimit nodes or at stopTime (if not 0).
+	public int solve(long nodeLimit, long stopTime)
+	{
+		this.nodeLimit = nodeLimit;
+		this.stopTime = stopTime;
+		nodes = 0;
+		aborted = false;
+		line.clear();
+
+		// the AI takes the flag on its own move,
+		// after an odd number of plies
+		for (int r = 1; r <= maxPly; r += 2) {
+			if (distance() > (r + 1) / 2)
+				continue;
+			mid(0, r, rootForbid, INF, INF);
+			if (aborted)
+				return 0;
+			if (pn == 0) {
+				depth = r;
+				pv(0, r, rootForbid);
+				return line.size() == 0 ? 0 : line.get(0);
+			}
+		}
+		return 0;
+	}
+
+	// Expands the position at ply with r plies left until its
+	// proof number reaches thpn or its disproof number thdn.
+	// forbid is the move the AI may not make next.
+	// The numbers are left in pn and dn.
+	private void mid(int ply, int r, int forbid, int thpn, int thdn)
+	{
+		boolean or = ply % 2 == 0;
+		long key = key(ply, r, forbid);
+
+		if (++nodes > nodeLimit
+			|| (stopTime != 0 && (nodes & 1023) == 0
+				&& System.currentTimeMillis() > stopTime)) {
+			aborted = true;
+			return;
+		}
+
+		int base = ply * MAX_MOVES;
+		int n = generate(ply, r, forbid);
+
+		// evaluate the children
+		// (the replies of the opponent change the distance of the
+		// AI pieces to the flag only if they take an AI piece)
+		int dist = or ? 0 : distance();
+		for (int k = 0; k < n; k++) {
+			int m = moves[base + k];
+			int c = base + k;
+			if (ply == 0 && excluded.contains(m)) {
+				childPn[c] = INF;
+				childDn[c] = 0;
+				continue;
+			}
+			int f = make(m, ply);
+			int d = dist;
+			if (or || uTo2[ply] >> 4 == ai + 1)
+				d = distance();
+			if (f == WIN) {
+				childPn[c] = 0;
+				childDn[c] = INF;
+			} else if (f == LOSS || d > aiMoves(ply + 1, r - 1)) {
+				childPn[c] = INF;
+				childDn[c] = 0;
+			} else {
+				long ckey = key(ply + 1, r - 1, childForbid(ply, m, forbid));
+				int cslot = probe(ckey);
+				if (cslot >= 0) {
+					childPn[c] = ttPn[cslot];
+					childDn[c] = ttDn[cslot];
+				} else {
+					childPn[c] = Math.max(1, d);
+					childDn[c] = 1;
+				}
+			}
+			unmake(ply);
+		}
+
+		int best = -1;
+		while (true) {
+
+		// The proof number of the AI to move is the least of its
+		// moves, and the disproof number the sum (and the other
+		// way round with the opponent to move).
+
+			long sum = 0;
+			int least = INF;
+			int second = INF;
+			best = -1;
+			for (int k = 0; k < n; k++) {
+				int c = base + k;
+				int v = or ? childPn[c] : childDn[c];
+				sum += or ? childDn[c] : childPn[c];
+				if (v < least || best < 0) {
+					second = least;
+					least = v;
+					best = k;
+				} else if (v < second)
+					second = v;
+			}
+			if (sum > INF)
+				sum = INF;
+			if (or) {
+				pn = least;
+				dn = (int)sum;
+			} else {
+				pn = (int)sum;
+				dn = least;
+			}
+			if (pn >= thpn || dn >= thdn || best < 0)
+				break;
+
+			int c = base + best;
+			int cthpn, cthdn;
+			if (or) {
+				cthpn = Math.min(thpn, second == INF ? INF : second + 1);
+				cthdn = limit((long)thdn - dn + childDn[c]);
+			} else {
+				cthpn = limit((long)thpn - pn + childPn[c]);
+				cthdn = Math.min(thdn, second == INF ? INF : second + 1);
+			}
+
+			int m = moves[c];
+			make(m, ply);
+			mid(ply + 1, r - 1, childForbid(ply, m, forbid), cthpn, cthdn);
+			unmake(ply);
+			if (aborted)
+				return;
+			childPn[c] = pn;
+			childDn[c] = dn;
+		}
+
+		store(key, pn, dn, best < 0 ? 0 : moves[base + best]);
+	}
+
+	// the entry of key, or -1
+	private int probe(long key)
+	{
+		int slot = (int)key & (TT_SIZE - 2);
+		if (ttKey[slot] == key)
+			return slot;
+		if (ttKey[slot + 1] == key)
+			return slot + 1;
+		return -1;
+	}
+
+	private void store(long key, int pn, int dn, int move)
+	{
+		int slot = probe(key);
+		if (slot < 0) {
+			slot = (int)key & (TT_SIZE - 2);
+			if (ttKey[slot] != 0 && (ttPn[slot] == 0 || ttDn[slot] == 0))
+				slot++;
+		}
+		ttKey[slot] = key;
+		ttPn[slot] = pn;
+		ttDn[slot] = dn;
+		ttMove[slot] = move;
+	}
+
+	private static int limit(long v)
+	{
+		return v >= INF ? INF : (int)v;
+	}
+
+	// The AI may not move straight back.  The move it may not
+	// make next is part of the key of the opponent positions too,
+	// because the replies of the AI depend on it.
+	private static int childForbid(int ply, int m, int forbid)
+	{
+		if (ply % 2 == 0)
+			return Endgame.reverse(m);
+		return forbid;
+	}
+
+	// the moves of the AI in ply plies from the position at ply
+	private static int aiMoves(int ply, int r)
+	{
+		if (ply % 2 == 0)
+			return (r + 1) / 2;
+		return r / 2;
+	}
+
+	// Follows the proof from the root: the proven move of the AI
+	// and the reply the search looked at last.
+	private void pv(int ply, int r, int forbid)
+	{
+		int start = line.size();
+		while (r > 0) {
+			int slot = probe(key(ply, r, forbid));
+			if (slot < 0 || ttPn[slot] != 0)
+				break;
+			int m = ttMove[slot];
+			line.add(m);
+			int f = make(m, ply);
+			forbid = childForbid(ply, m, forbid);
+			ply++;
+			r--;
+			if (f != NONE)
+				break;
+		}
+		while (ply > start)
+			unmake(--ply);
+	}
+
+	private long key(int ply, int r, int forbid)
+	{
+		long k = hash ^ rules ^ plies[r];
+		if (ply % 2 != 0)
+			k ^= SIDE;
+		if (forbid != 0)
+			k ^= Endgame.mix(0x200000L | forbid);
+		return k;
+	}
+
+	private boolean slider(int code)
+	{
+		int r = code & 15;
+		return r == NINE || (r == UNKNOWN && unknownNine);
+	}
+
+	// A lower bound of the moves of a piece from i to j.
+	private int steps(int code, int i, int j)
+	{
+		int dx = Math.abs(i % 11 - j % 11);
+		int dy = Math.abs(i / 11 - j / 11);
+		if (slider(code))
+			return (dx != 0 ? 1 : 0) + (dy != 0 ? 1 : 0);
+		return dx + dy;
+	}
+
+	// The least number of moves an AI piece needs to take the flag.
+	private int distance()
+	{
+		int own = ai + 1;
+		int d = INF;
+		for (int i = 12; i <= 120; i++) {
+			int c = sq[i];
+			if (c <= 0 || c >> 4 != own || (c & 15) >= BOMB)
+				continue;
+			d = Math.min(d, steps(c, i, target));
+		}
+		return d;
+	}
+
+	// Generates the moves of the position at ply with r plies
+	// left into moves[ply * MAX_MOVES...], except forbid.
+	// Returns the number of moves.
+	private int generate(int ply, int r, int forbid)
+	{
+		int base = ply * MAX_MOVES;
+		int n = base;
+		int aim = aiMoves(ply, r);
+		if (ply % 2 == 0) {
+
+		// the AI moves the pieces that can reach the flag,
+		// and only closer
+
+			int own = ai + 1;
+			for (int i = 12; i <= 120; i++) {
+				int fc = sq[i];
+				if (fc <= 0 || fc >> 4 != own || (fc & 15) >= BOMB
+					|| steps(fc, i, target) > aim)
+					continue;
+				for (int d : dir) {
+					int t = i + d;
+					while (sq[t] == 0) {
+						if (steps(fc, t, target) < aim)
+							n = add(n, i, t, forbid);
+						if ((fc & 15) != NINE)
+							break;
+						t += d;
+					}
+					if (sq[t] > 0 && sq[t] >> 4 != own
+						&& steps(fc, t, target) < aim)
+						n = add(n, i, t, forbid);
+				}
+			}
+			return n - base;
+		}
+
+		// the AI pieces that can still take the flag
+		int own = 2 - ai;
+		int opm = r - aim;
+		boolean all = false;
+		nAttackers = 0;
+		for (int i = 12; i <= 120; i++) {
+			int c = sq[i];
+			if (c > 0 && c >> 4 == ai + 1 && (c & 15) < BOMB
+				&& steps(c, i, target) <= aim) {
+				attackers[nAttackers++] = i;
+				if (slider(c))
+					all = true;
+			}
+		}
+
+		moves[n++] = 0;		// pass
+		for (int i = 12; i <= 120; i++) {
+			int fc = sq[i];
+			if (fc <= 0 || fc >> 4 != own
+				|| ((fc & 15) >= BOMB && (fc & 15) != UNKNOWN))
+				continue;
+			if (!all && !slider(fc) && !relevant(i, opm, aim))
+				continue;
+			for (int d : dir) {
+				int t = i + d;
+				while (sq[t] == 0) {
+					n = add(n, i, t, 0);
+					if (!slider(fc))
+						break;
+					t += d;
+				}
+				if (sq[t] > 0 && sq[t] >> 4 != own)
+					n = add(n, i, t, 0);
+			}
+		}
+		return n - base;
+	}
+
+	// Whether the opponent piece at i can reach the AI flag,
+	// a square next to the flag, or a square an attacker can
+	// pass on its way, in opm moves.
+	private boolean relevant(int i, int opm, int aim)
+	{
+		if (aiFlag != 0 && steps(0, i, aiFlag) <= opm)
+			return true;
+		if (steps(0, i, target) <= opm + 1)
+			return true;
+		for (int k = 0; k < nAttackers; k++)
+			if (steps(0, i, attackers[k]) <= opm + aim)
+				return true;
+		return false;
+	}
+
+	private int add(int n, int from, int to, int forbid)
+	{
+		int m = Move.packMove(from, to);
+		if (m != forbid)
+			moves[n++] = m;
+		return n;
+	}
+
+	// Makes the move (0 is a pass) at ply.
+	// Returns WIN or LOSS if it takes a flag.
+	private int make(int m, int ply)
+	{
+		uHash[ply] = hash;
+		if (m == 0) {
+			uFrom[ply] = 0;
+			uTo[ply] = 0;
+			uFrom2[ply] = sq[0];
+			uTo2[ply] = sq[0];
+			return NONE;
+		}
+		int from = Move.unpackFrom(m);
+		int to = Move.unpackTo(m);
+		int fc = sq[from];
+		int tc = sq[to];
+		uFrom[ply] = from;
+		uTo[ply] = to;
+		uFrom2[ply] = fc;
+		uTo2[ply] = tc;
+
+		sq[from] = 0;
+		hash ^= Endgame.zobrist(from, fc);
+
+		// a piece that moves more than one square is a Nine
+		if ((fc & 15) == UNKNOWN
+			&& Math.abs(to - from) != 1 && Math.abs(to - from) != 11)
+			fc = fc & ~15 | NINE;
+
+		if (tc == 0) {
+			sq[to] = fc;
+			hash ^= Endgame.zobrist(to, fc);
+			return NONE;
+		}
+
+		hash ^= Endgame.zobrist(to, tc);
+		int result = fight[fc & 15][tc & 15];
+		if (result == Rank.WINS) {
+			sq[to] = fc;
+			hash ^= Endgame.zobrist(to, fc);
+			if ((tc & 15) == FLAG)
+				return fc >> 4 == ai + 1 ? WIN : LOSS;
+			return NONE;
+		}
+		if (result == Rank.EVEN)
+			sq[to] = 0;
+		else if (Settings.bNoMoveDefender || (tc & 15) == BOMB) {
+			sq[to] = tc;
+			hash ^= Endgame.zobrist(to, tc);
+		} else {
+			sq[to] = 0;
+			sq[from] = tc;
+			hash ^= Endgame.zobrist(from, tc);
+		}
+		return NONE;
+	}
+
+	private void unmake(int ply)
+	{
+		sq[uFrom[ply]] = uFrom2[ply];
+		sq[uTo[ply]] = uTo2[ply];
+		hash = uHash[ply];
+	}
+}
@@ -59,6 +59,8 @@ public class PieceButton extends JButton implements MouseListener,
 	private MoveListener listener = null;
 	private Skin skin = null;
 	private boolean resized = false;
+	private Image drawnPiece = null;	// what the grid icon was composed from
+	private ImageIcon drawnBG = null;
 	
 	public PieceButton(MoveListener l, Spot s)
 	{
@@ -93,11 +95,19 @@ public class PieceButton extends JButton implements MouseListener,
 		refreshIcon();
 	}
 	
+	// Only a square whose picture changed is repainted.  setIcon()
+	// does nothing when given the icon the button already shows,
+	// and a map square keeps its composed icon until the piece
+	// image or the tile under it changes, so a move dirties just
+	// the squares it touched.
+
 	public void refreshIcon()
 	{		
 		if (spot.equals(Board.IN_TRAY) ||
 				skin.gridBG[spot.getX()][spot.getY()] == null)
 		{
+			drawnPiece = null;
+			drawnBG = null;
 			if (piece == null || piece.getColor() == -1) 
 			{
 				setIcon(null);
@@ -142,9 +152,12 @@ public class PieceButton extends JButton implements MouseListener,
 		else 
 		{
 		
+			ImageIcon tile = skin.gridBG[spot.getX()][spot.getY()];
 			if (piece == null || piece.getColor() == -1)
 			{
-				setIcon(skin.gridBG[spot.getX()][spot.getY()]);
+				drawnPiece = null;
+				drawnBG = tile;
+				setIcon(tile);
 				return;
 			}
 
@@ -189,7 +202,12 @@ public class PieceButton extends JButton implements MouseListener,
 				}
 			}
 
-			Image bg = skin.gridBG[spot.getX()][spot.getY()].getImage();
+			if (pc == drawnPiece && tile == drawnBG)
+				return;
+			drawnPiece = pc;
+			drawnBG = tile;
+
+			Image bg = tile.getImage();
 			BufferedImage bi = new BufferedImage(bg.getWidth(null), bg.getHeight(null), BufferedImage.TYPE_INT_ARGB);
 			Graphics2D g = bi.createGraphics();
 			g.drawImage(bg, 0, 0, bg.getWidth(null), bg.getHeight(null),  null);
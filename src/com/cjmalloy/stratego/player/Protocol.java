@@ -0,0 +1,228 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.NoSuchElementException;
+
+// The stdin/stdout side of the manager protocol (see AITest).
+//
+// AITest used to read with a Scanner, split every line into a
+// Vector of Strings and print the board a character at a time
+// to System.out, which flushes on every line.  In a match of
+// hundreds of games that was a visible part of each turn.
+//
+// Input is read in blocks into a byte buffer.  The board lines the
+// manager sends after every move are skipped without being copied,
+// and a result line is parsed in place into the fields below.
+// Output is collected in a buffer and written by flush() once a
+// turn, when the manager is waiting for it.
+
+public class Protocol
+{
+	// readResult()
+	public static final int RESULT = 0;
+	public static final int NO_MOVE = 1;
+	public static final int QUIT = 2;
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	// the last result line
+	public int x;
+	public int y;
+	public int dir;			// index in AITest.directions
+	public int multiplier;
+	public boolean ranks;		// a fight, the ranks follow the outcome
+	public char attacker;
+	public char defender;
+
+	private InputStream in;
+	private byte[] buf = new byte[8192];
+	private int pos = 0;
+	private int end = 0;
+
+	private byte[] line = new byte[256];
+	private int len = 0;
+	private int tok = 0;		// parse position in line
+
+	private OutputStream out;
+	private byte[] obuf = new byte[4096];
+	private int olen = 0;
+
+	public Protocol(InputStream in, OutputStream out)
+	{
+		this.in = in;
+		this.out = out;
+	}
+
+	private int read() throws IOException
+	{
+		if (pos == end) {
+			end = in.read(buf, 0, buf.length);
+			pos = 0;
+			if (end <= 0) {
+				end = 0;
+				return -1;
+			}
+		}
+		return buf[pos++] & 0xff;	// not -1 for a 0xFF byte
+	}
+
+	// reads the next line into line[], without the line end
+	private void readLine() throws IOException
+	{
+		len = 0;
+		tok = 0;
+		int c = read();
+		if (c < 0)
+			throw new NoSuchElementException("No line found");
+		while (c >= 0 && c != '\n') {
+			if (len == line.length) {
+				byte[] b = new byte[len * 2];
+				System.arraycopy(line, 0, b, 0, len);
+				line = b;
+			}
+			line[len++] = (byte)c;
+			c = read();
+		}
+		if (len > 0 && line[len-1] == '\r')
+			len--;
+	}
+
+	public String nextLine() throws IOException
+	{
+		readLine();
+		return new String(line, 0, len, "US-ASCII");
+	}
+
+	public void skipLines(int n) throws IOException
+	{
+		while (n > 0) {
+			int c = read();
+			if (c < 0)
+				throw new NoSuchElementException("No line found");
+			if (c == '\n')
+				n--;
+		}
+	}
+
+	// skips to the next token, returns its first character or 0
+	private int nextToken()
+	{
+		while (tok < len && line[tok] == ' ')
+			tok++;
+		if (tok == len)
+			return 0;
+		return line[tok];
+	}
+
+	private void skipToken()
+	{
+		while (tok < len && line[tok] != ' ')
+			tok++;
+	}
+
+	private int parseInt() throws IOException
+	{
+		int c = nextToken();
+		if (c < '0' || c > '9')
+			throw new IOException("Expected a number: " + lineString());
+		int n = 0;
+		while (tok < len && line[tok] >= '0' && line[tok] <= '9')
+			n = n * 10 + line[tok++] - '0';
+		return n;
+	}
+
+	private String lineString()
+	{
+		return new String(line, 0, len);
+	}
+
+	// Reads a result line: x y DIR [n] OUTCOME [attacker defender]
+	public int readResult() throws IOException
+	{
+		readLine();
+		int c = nextToken();
+		if (c == 'Q')
+			return QUIT;
+		if (c == 'N')
+			return NO_MOVE;
+
+		x = parseInt();
+		y = parseInt();
+		switch (nextToken()) {
+		case 'U': dir = 0; break;
+		case 'D': dir = 1; break;
+		case 'L': dir = 2; break;
+		case 'R': dir = 3; break;
+		default:
+			throw new IOException("Unrecognised direction: " + lineString());
+		}
+		skipToken();
+
+		c = nextToken();
+		multiplier = 1;
+		if (c >= '0' && c <= '9')
+			multiplier = parseInt();
+		if (nextToken() == 0)
+			throw new IOException("Expected an outcome: " + lineString());
+		skipToken();	// outcome
+
+		ranks = false;
+		if (nextToken() != 0) {
+			attacker = (char)line[tok];
+			skipToken();
+			if (nextToken() != 0) {
+				defender = (char)line[tok];
+				ranks = true;
+			}
+		}
+		return RESULT;
+	}
+
+	public void write(byte[] b, int off, int n) throws IOException
+	{
+		if (olen + n > obuf.length) {
+			flush();
+			if (n > obuf.length) {
+				out.write(b, off, n);
+				return;
+			}
+		}
+		System.arraycopy(b, off, obuf, olen, n);
+		olen += n;
+	}
+
+	public void println(String s) throws IOException
+	{
+		byte[] b = s.getBytes("US-ASCII");
+		write(b, 0, b.length);
+		write(NEWLINE, 0, 1);
+	}
+
+	public void flush() throws IOException
+	{
+		if (olen != 0) {
+			out.write(obuf, 0, olen);
+			olen = 0;
+		}
+		out.flush();
+	}
+}
@@ -20,6 +20,7 @@ package com.cjmalloy.stratego.player;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
@@ -29,11 +30,14 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.zip.ZipFile;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
 
 public class Skin
 {
@@ -129,9 +133,197 @@ public class Skin
 		return skins[0] != null;
 	}
 	
+	// A skin at one size.
+	//
+	// Resizing used to filter every image through an AffineTransformOp
+	// of its own, with a temporary image for each, on the event thread
+	// every time the window changed size, so dragging the window edge
+	// stalled for seconds with a large skin.  Now the images for a size
+	// are drawn once into a single atlas, and the icons are views of
+	// it (getSubimage() shares the pixels).  The CACHE_SIZE sizes last
+	// used are kept, so going back to one of them is instant, and
+	// resizeLater() draws a new size on the scaler thread once the
+	// window has kept it for DEBOUNCE ms.
+	//
+	// The atlas has a row for each row of map tiles, a row of the
+	// pieces, six rows of the pieces on the colors and a row of backs.
+	private static class Sprites
+	{
+		int x, y;
+		int generation;
+		BufferedImage atlas = null;
+		ImageIcon scaledSkins[] = new ImageIcon[13];
+		ImageIcon gridBG[][] = new ImageIcon[10][10];
+		ImageIcon colored[][] = new ImageIcon[6][13];
+		ImageIcon backs[] = new ImageIcon[4];
+	}
+
+	private static final int CACHE_SIZE = 3;	// sizes
+	private static final long DEBOUNCE = 150;	// ms
+
+	private LinkedHashMap<Long, Sprites> cache = new LinkedHashMap<Long, Sprites>(8, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, Sprites> e)
+		{
+			return size() > CACHE_SIZE;
+		}
+	};
+	private int generation = 0;	// of the skin, see loadSkin()
+	private int toolbarGeneration = -1;
+	private Sprites current = null;
+	private Thread scaler = null;
+	private int request = 0;	// the latest size asked for
+	private boolean waiting = false;
+	private int waitX, waitY;
+	private long waitUntil;
+	private Runnable waitDone = null;
+
+	private static long key(int x, int y)
+	{
+		return ((long)x << 32) | (y & 0xffffffffL);
+	}
+
+	// Resizes at once.  For the event thread.
 	public void resize(int x, int y)
 	{
-		//splash screen
+		scaleSplash(y);
+
+		Sprites s;
+		int gen;
+		synchronized (this)
+		{
+			request++;
+			waiting = false;
+			s = cache.get(key(x, y));
+			gen = generation;
+		}
+		if (s == null)
+		{
+			s = draw(x, y, gen);
+			synchronized (this)
+			{
+				if (gen == generation)
+					cache.put(key(x, y), s);
+			}
+		}
+		use(s);
+	}
+
+	// Resizes at once if the size is cached, or for a new skin,
+	// otherwise in the background, and then runs done on the event
+	// thread.  Until then the icons of the old size are used.
+	// For the event thread.
+	public void resizeLater(int x, int y, Runnable done)
+	{
+		boolean now;
+		synchronized (this)
+		{
+			now = current == null || current.generation != generation
+				|| cache.containsKey(key(x, y));
+		}
+		if (now)
+		{
+			resize(x, y);
+			done.run();
+			return;
+		}
+
+		scaleSplash(y);
+		synchronized (this)
+		{
+			request++;
+			waiting = true;
+			waitX = x;
+			waitY = y;
+			waitUntil = System.currentTimeMillis() + DEBOUNCE;
+			waitDone = done;
+			if (scaler == null)
+			{
+				scaler = new Thread("Skin scaler")
+				{
+					public void run()
+					{
+						scale();
+					}
+				};
+				scaler.setDaemon(true);
+				scaler.start();
+			}
+			notifyAll();
+		}
+	}
+
+	// the scaler thread
+	private void scale()
+	{
+		while (true)
+		{
+			int x, y, gen, req;
+			final Runnable done;
+			synchronized (this)
+			{
+				try
+				{
+					while (true)
+					{
+						if (!waiting)
+						{
+							wait();
+							continue;
+						}
+						long d = waitUntil - System.currentTimeMillis();
+						if (d <= 0)
+							break;
+						wait(d);
+					}
+				}
+				catch (InterruptedException e)
+				{
+					continue;
+				}
+				waiting = false;
+				x = waitX;
+				y = waitY;
+				gen = generation;
+				req = request;
+				done = waitDone;
+			}
+
+			final Sprites s;
+			try
+			{
+				s = draw(x, y, gen);
+			}
+			catch (RuntimeException e)
+			{
+				// the skin changed meanwhile
+				continue;
+			}
+
+			final int r = req;
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					synchronized (Skin.this)
+					{
+						if (s.generation != generation)
+							return;
+						cache.put(key(s.x, s.y), s);
+						if (r != request)
+							return;
+					}
+					use(s);
+					done.run();
+				}
+			});
+		}
+	}
+
+	private void scaleSplash(int y)
+	{
 		if (splash != null)
 		{
 			BufferedImage bi = new BufferedImage(splash.getWidth(null), splash.getHeight(null), BufferedImage.TYPE_INT_ARGB);
@@ -142,9 +334,29 @@ public class Skin
 			AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
 			scaledSplash = op.filter(bi, null);
 		}
-		
-		//toolbar
+	}
+
+	// the icons of the size from now on
+	private void use(Sprites s)
+	{
+		current = s;
+		scaledSkins = s.scaledSkins;
+		gridBG = s.gridBG;
+		redSkins = s.colored[0];
+		blueSkins = s.colored[1];
+		redASkins = s.colored[2];
+		blueASkins = s.colored[3];
+		redAASkins = s.colored[4];
+		blueAASkins = s.colored[5];
+		redBack = s.backs[0];
+		blueBack = s.backs[1];
+		redABack = s.backs[2];
+		blueABack = s.backs[3];
+
+		// the toolbar is the same size whatever the window
+		if (toolbarGeneration != s.generation)
 		{
+			toolbarGeneration = s.generation;
 			int w = 32;
 			int h = 32;
 			scaledOnePlayerIcon = scale(onePlayerIcon, w, h);
@@ -159,144 +371,95 @@ public class Skin
 			scaledSaveIcon = scale(saveIcon, w, h);
 			scaledSaveAsIcon = scale(saveAsIcon, w, h);
 		}
-		
+	}
+
+	private Sprites draw(int x, int y, int gen)
+	{
+		ImageIcon src[] = skins.clone();
+		Color colors[] = { redColor, blueColor, redAColor, blueAColor, redAAColor, blueAAColor };
+
+		Sprites s = new Sprites();
+		s.x = x;
+		s.y = y;
+		s.generation = gen;
+
+		// a square, and a piece on a square
+		int w = Math.max(1, (int)Math.round(x/18.0)),
+			h = Math.max(1, (int)Math.round(y/10.0)),
+			pw = Math.max(1, (int)Math.round(0.8*x/18.0)),
+			ph = Math.max(1, (int)Math.round(0.8*y/10.0));
+		int rows = (src[0] != null ? 10*h : 0) + h + 7*ph;
+		s.atlas = new BufferedImage(12*w, rows, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = s.atlas.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		int top = 0;
+
 		//background
-		if (skins[0] != null)
+		if (src[0] != null)
 		{
-			Image img = skins[0].getImage();
-			int w = img.getWidth(null) / 10;
-			int h = img.getHeight(null) / 10;
-
-			AffineTransform tx = new AffineTransform();
-			tx.scale((x/18.0)/w, (y/10.0)/h);
-			AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-			
+			Image img = src[0].getImage();
+			int mw = img.getWidth(null) / 10;
+			int mh = img.getHeight(null) / 10;
 			for (int i=0;i<10;i++)
 			for (int j=0;j<10;j++)
 			{
-				BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-				Graphics2D g = bi.createGraphics();
-				g.drawImage(img, 0, 0, w, w, i*w, j*h, (i+1)*w, (j+1)*h, null);
-				gridBG[i][j] = new ImageIcon(op.filter(bi, null));
-				g.dispose();
+				g.drawImage(img, i*w, top + j*h, (i+1)*w, top + (j+1)*h,
+					i*mw, j*mh, (i+1)*mw, (j+1)*mh, null);
+				s.gridBG[i][j] = sprite(s, i*w, top + j*h, w, h);
 			}
+			top += 10*h;
 		}
-		else
+
+		//pieces
+		boolean any = false;
+		for (int i=1;i<13;i++)
 		{
-			for (int i=0;i<10;i++)
-			for (int j=0;j<10;j++)
+			if (src[i] == null)
+				continue;
+			any = true;
+			Image img = src[i].getImage();
+			int left = (i-1)*w;
+			g.drawImage(img, left, top, w, h, null);
+			s.scaledSkins[i] = sprite(s, left, top, w, h);
+
+			left = (i-1)*pw;
+			for (int c=0;c<colors.length;c++)
 			{
-				gridBG[i][j] = null;
+				int t = top + h + c*ph;
+				g.setColor(colors[c]);
+				g.fillRect(left, t, pw, ph);
+				g.drawImage(img, left, t, pw, ph, null);
+				s.colored[c][i] = sprite(s, left, t, pw, ph);
 			}
 		}
-		
+		top += h + colors.length*ph;
+
 		//backs
-		for (int i=1;i<13;i++)
+		if (any)
 		{
-			if (skins[i] != null)
-			{			
-				Image img = skins[i].getImage();
-				BufferedImage bi = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-				Graphics2D g = bi.createGraphics();
-	
-				AffineTransform tx = new AffineTransform();
-				tx.scale(0.8*(x/18.0)/img.getWidth(null), 0.8*(y/10.0)/img.getHeight(null));
-				AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-				
-				g.setBackground(redColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				redBack = new ImageIcon(op.filter(bi, null));
-				
-				g.setBackground(blueColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				blueBack = new ImageIcon(op.filter(bi, null));
-
-				g.setBackground(redAColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				redABack = new ImageIcon(op.filter(bi, null));
-				
-				g.setBackground(blueAColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				blueABack = new ImageIcon(op.filter(bi, null));
-
-				g.dispose();
-				break;
-			}
-			else
+			for (int c=0;c<4;c++)
 			{
-				redBack = null;
-				blueBack = null;
+				g.setColor(colors[c]);
+				g.fillRect(c*pw, top, pw, ph);
+				s.backs[c] = sprite(s, c*pw, top, pw, ph);
 			}
 		}
-		
-		//pieces
-		for (int i=1;i<13;i++)
-		{
-			if (skins[i] != null)
-			{
-
-
-				Image img = skins[i].getImage();
-				BufferedImage bi = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-				Graphics2D g = bi.createGraphics();
-
-				AffineTransform tx = new AffineTransform();
-				tx.scale((x/18.0)/img.getWidth(null), (y/10.0)/img.getHeight(null));
-				AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				scaledSkins[i] = new ImageIcon(op.filter(bi, null));
-
-
-				tx = new AffineTransform();
-				tx.scale(0.8*(x/18.0)/img.getWidth(null), 0.8*(y/10.0)/img.getHeight(null));
-				op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
 
-				g.setBackground(redColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				redSkins[i] = new ImageIcon(op.filter(bi, null));
-
-				g.setBackground(blueColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				blueSkins[i] = new ImageIcon(op.filter(bi, null));
-
-				g.setBackground(redAColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				redASkins[i] = new ImageIcon(op.filter(bi, null));
-
-				g.setBackground(blueAColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				blueASkins[i] = new ImageIcon(op.filter(bi, null));
-
-				g.setBackground(redAAColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				redAASkins[i] = new ImageIcon(op.filter(bi, null));
-
-				g.setBackground(blueAAColor);
-				g.clearRect(0, 0, img.getWidth(null), img.getHeight(null));
-				g.drawImage(img, 0, 0, img.getWidth(null), img.getHeight(null), null);
-				blueAASkins[i] = new ImageIcon(op.filter(bi, null));
+		g.dispose();
+		return s;
+	}
 
-				g.dispose();
-			}
-			else
-			{
-				scaledSkins[i] = null;
-				redSkins[i] = null;
-				blueSkins[i] = null;
-				redASkins[i] = null;
-				blueASkins[i] = null;
-				redAASkins[i] = null;
-				blueAASkins[i] = null;
-			}
-		}
+	private static ImageIcon sprite(Sprites s, int x, int y, int w, int h)
+	{
+		return new ImageIcon(s.atlas.getSubimage(x, y, w, h));
 	}
 	
+	// drops the sizes of the old skin, once the new one is loaded
+	private synchronized void changed()
+	{
+		generation++;
+		cache.clear();
+	}
 
 	public void loadSkin() throws Exception
 	{
@@ -331,6 +494,7 @@ public class Skin
 			bg = ImageIO.read(in);
 			in = this.getClass().getResource("/images/grid.jpg"); 
 			skins[0] = new ImageIcon(ImageIO.read(in));
+			changed();
 		}
 	}
 	
@@ -476,6 +640,7 @@ public class Skin
 	    }
 	    
 	    defaultPieces();
+	    changed();
 	}
 	
 	private void defaultPieces() throws Exception
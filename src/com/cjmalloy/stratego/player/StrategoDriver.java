@@ -16,6 +16,10 @@
 */
 
 package com.cjmalloy.stratego.player;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.cjmalloy.stratego.Params;
 import com.cjmalloy.stratego.Settings;
 
 
@@ -26,7 +30,8 @@ public class StrategoDriver
 	public static void main(String[] args)
 	{
 		boolean graphics = false;
-		for(String arg:args)
+		for (int i = 0; i < args.length; i++) {
+		    String arg = args[i];
 		    if (arg.equals("-g"))
 			graphics = true;
 		    else if (arg.equals("-1"))
@@ -39,10 +44,58 @@ public class StrategoDriver
 			Settings.debugLevel = 2;
 		    else if (arg.substring(0,2).equals("-l"))
 			Settings.aiLevel = Integer.parseInt(arg.substring(2));
+		    else if (arg.substring(0,2).equals("-s"))
+			Settings.seed = Long.parseLong(arg.substring(2));
+		    else if (arg.substring(0,2).equals("-n"))
+			Settings.nodeLimit = Long.parseLong(arg.substring(2));
+		    else if (arg.substring(0,2).equals("-d"))
+			Settings.depthLimit = Integer.parseInt(arg.substring(2));
+		    else if (arg.substring(0,2).equals("-r"))
+			Settings.revealTime = Integer.parseInt(arg.substring(2));
 		    else if (arg.equals("-t")) {
 			new AITest(graphics);
 			return;
 		    }
+		    else if (arg.equals("-a")) {
+			new AITest(graphics, true);
+			return;
+		    }
+		    else if (arg.equals("-j"))
+			Batch.json = true;
+		    else if (arg.substring(0,2).equals("-p")) {
+			Batch.threads = Integer.parseInt(arg.substring(2));
+			Tuner.threads = Batch.threads;
+		    }
+		    else if (arg.substring(0,2).equals("-e")) {
+			// must precede -t, -a, -b and -u
+			try {
+				Params.load(arg.substring(2));
+			} catch (IOException e) {
+				System.err.println(e);
+				System.exit(1);
+			}
+		    }
+		    else if (arg.substring(0,2).equals("-u")) {
+			// -u<iterations> file
+			try {
+				new Tuner(Integer.parseInt(arg.substring(2)), args[i+1]).run(System.out);
+			} catch (IOException e) {
+				System.err.println(e);
+				System.exit(1);
+			}
+			return;
+		    }
+		    else if (arg.equals("-b")) {
+			// the rest are game records
+			try {
+				new Batch(Arrays.copyOfRange(args, i+1, args.length)).run(System.out);
+			} catch (IOException e) {
+				System.err.println(e);
+				System.exit(1);
+			}
+			return;
+		    }
+		}
 		
 		new WView();
 	}
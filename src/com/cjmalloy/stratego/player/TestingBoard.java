@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Grid;
 import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Params;
 import com.cjmalloy.stratego.UndoMove;
 import com.cjmalloy.stratego.Piece;
 import com.cjmalloy.stratego.TestPiece;
@@ -123,19 +124,22 @@ public class TestingBoard extends Board
 	// a known Seven (or Nine) should sacrifice itself
 	// to reveal a suspected Four but not a suspected Five.
 
-	private static final int VALUE_ONE = 6400;
-	private static final int VALUE_TWO = VALUE_ONE/2;
-	private static final int VALUE_THREE = VALUE_TWO/2;
-	private static final int VALUE_FOUR = VALUE_THREE/2;
-	private static final int VALUE_FIVE = VALUE_FOUR/2;
-	private static final int VALUE_SIX = VALUE_FIVE/2;
-	private static final int VALUE_SEVEN = VALUE_SIX * 60/100;
+	// These and the DEST_PRIORITY values below are read from
+	// the parameter vector (see Params), so that they can be tuned.
+
+	private static final int VALUE_ONE = Params.value[Params.VALUE_ONE];
+	private static final int VALUE_TWO = Params.value[Params.VALUE_TWO];
+	private static final int VALUE_THREE = Params.value[Params.VALUE_THREE];
+	private static final int VALUE_FOUR = Params.value[Params.VALUE_FOUR];
+	private static final int VALUE_FIVE = Params.value[Params.VALUE_FIVE];
+	private static final int VALUE_SIX = Params.value[Params.VALUE_SIX];
+	private static final int VALUE_SEVEN = Params.value[Params.VALUE_SEVEN];
 
     // Opponent Nine value must be more than lowest AI stealth
     // (usually six or seven)
     // or it will never be attacked, leaving it to roam forever ...
-	private static final int VALUE_NINE = VALUE_SIX * 40/100;
-	private static final int VALUE_SPY = VALUE_SIX * 30/100;
+	private static final int VALUE_NINE = Params.value[Params.VALUE_NINE];
+	private static final int VALUE_SPY = Params.value[Params.VALUE_SPY];
 
 	private static final int [] startValues = {
 		0,
@@ -160,7 +164,7 @@ public class TestingBoard extends Board
     private static final int PLANB = 1;
     private static final int PLANC = 2;
 
-	private static final int DEST_PRIORITY_DEFEND_FLAG_AREA = 7;
+	private static final int DEST_PRIORITY_DEFEND_FLAG_AREA = Params.value[Params.DEST_PRIORITY_DEFEND_FLAG_AREA];
 
 	// Note: DEST_PRIORITY_LANE must have unique priority
 	// because it is a special case in planv.  It is limited to
@@ -177,7 +181,7 @@ public class TestingBoard extends Board
 	// on the board.  But usually if the lanes are not blocked, the
 	// chase piece can find a way to its target.
 
-	private static final int DEST_PRIORITY_LANE = 6;
+	private static final int DEST_PRIORITY_LANE = Params.value[Params.DEST_PRIORITY_LANE];
 
 	// Note: DEST_PRIORITY_ATTACK_FLAG should be higher than
 	// DEST_PRIORITY_CHASE, because an Eight could be
@@ -186,12 +190,12 @@ public class TestingBoard extends Board
     // DEST_PRIOITY_ATTACK_FLAG must be less than DEST_PRIORITY_CHASE_ATTACK
     // (see attackBomb() priority).
 
-	private static final int DEST_PRIORITY_ATTACK_FLAG = 3;
+	private static final int DEST_PRIORITY_ATTACK_FLAG = Params.value[Params.DEST_PRIORITY_ATTACK_FLAG];
 
     // If there is a way of attacking a flag with a scout,
     // this is very high priority, because it can reach the flag
     // quickly
-	private static final int DEST_PRIORITY_ATTACK_FLAG_WITH_SCOUT = 5;
+	private static final int DEST_PRIORITY_ATTACK_FLAG_WITH_SCOUT = Params.value[Params.DEST_PRIORITY_ATTACK_FLAG_WITH_SCOUT];
 
     // Because the AI is not able to correctly formulate
     // winning attack plans at the expense of defense,
@@ -202,20 +206,20 @@ public class TestingBoard extends Board
     // and eliminate opponent invincible pieces before tending to
     // its own attack plans for best result.
 
-	private static final int DEST_PRIORITY_CHASE_DEFEND = 4;
-	private static final int DEST_PRIORITY_CHASE_ATTACK = 3;
+	private static final int DEST_PRIORITY_CHASE_DEFEND = Params.value[Params.DEST_PRIORITY_CHASE_DEFEND];
+	private static final int DEST_PRIORITY_CHASE_ATTACK = Params.value[Params.DEST_PRIORITY_CHASE_ATTACK];
 
     // Flag bias is 1, so chase priority must be 2 or higher,
     // so that it will chase a piece one step away.
-	private static final int DEST_PRIORITY_CHASE = 2;
-	private static final int DEST_PRIORITY_LOW = 1;
+	private static final int DEST_PRIORITY_CHASE = Params.value[Params.DEST_PRIORITY_CHASE];
+	private static final int DEST_PRIORITY_LOW = Params.value[Params.DEST_PRIORITY_LOW];
 
 	private static final int DEST_VALUE_NIL = 9999;
 	private static final int GUARDED_OPEN = 0;
 	private static final int GUARDED_UNKNOWN = 1;
 	private static final int GUARDED_OPEN_CAUTIOUS = 2;
 	private static final int GUARDED_CAUTIOUS = 3;
-	private static final int VALUE_BLUFF = 2;	// negative discourages bluffing
+	private static final int VALUE_BLUFF = Params.value[Params.VALUE_BLUFF];	// negative discourages bluffing
 
 	protected TestPiece[][][] planPiece = new TestPiece[2][15][3];
 	protected int[] sumValues = new int[2];
@@ -223,6 +227,7 @@ public class TestingBoard extends Board
 	protected int[] unmovedValue = new int[121];    // unmoved value
 	protected int[][] valueStealth = new int[2][15];
 	protected long hashTest = 0;
+	private int[] destQueue = new int[121*4+1];	// genDestTmpCommon() scratch
 
     // lowestUnknownNotSuspectedRank is the lowest opponent rank
     // that is not known or *matured* suspected.   Note that an opponent
@@ -247,7 +252,7 @@ public class TestingBoard extends Board
 	public ArrayList<Piece>[] scouts = (ArrayList<Piece>[])new ArrayList[2];
 
 	protected boolean lotto;
-	private static final int VALUE_MOVED = VALUE_NINE/3;
+	private static final int VALUE_MOVED = Params.value[Params.VALUE_MOVED];
 
 	private static final int UNK = 0;
 	private static final int WINS = 1;
@@ -3294,12 +3299,27 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		for (int j = 0; j <= 120; j++)
 			destTmp[j] = DEST_VALUE_NIL;
 
+        // The maze is the bulk of pre-processing, because it is
+        // run for nearly every piece on the board by chase() and
+        // the flag code.  So the queue is a scratch buffer owned
+        // by the board and reused by each call, rather than a list
+        // that would box every square visited.
+        // (Only a square that is reset to DEST_VALUE_NIL by the
+        // guarded check can be queued more than once, and such a
+        // square does not queue its neighbors, so the queue never
+        // exceeds four entries per square.)
+
+        int plan[][] = null;
+        if (attackPiece != null)
+            plan = getPlan(attackPiece);
+
 		destTmp[to] = 1;
-		ArrayList<Integer> queue = new ArrayList<Integer>();
-		queue.add(to);
-		int count = 0;
-		while (count < queue.size()) {
-			int j = queue.get(count++);
+		int[] queue = destQueue;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = to;
+		while (head < tail) {
+			int j = queue[head++];
 			if (!Grid.isValid(j))
 				continue;
 			int n = destTmp[j];
@@ -3344,11 +3364,8 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
             // allow clogged lanes to block chases
             // encouraging the piece to find an alternate route
 
-            if (attackPiece != null) {
-                int plan[][] = getPlan(attackPiece);
-                if (plan != null && plan[1][j] == DEST_PRIORITY_LANE)
+            if (plan != null && plan[1][j] == DEST_PRIORITY_LANE)
                 continue;
-            }
 
             // check for guarded squares
             if ((guarded == GUARDED_CAUTIOUS
@@ -3427,7 +3444,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 					continue;
 
 				destTmp[i] = n + 1;
-				queue.add(i);
+				queue[tail++] = i;
 			} // d
 		} // while
 		return destTmp;
@@ -0,0 +1,457 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cjmalloy.stratego.Params;
+import com.cjmalloy.stratego.Settings;
+
+// Tunes the evaluation parameters (see Params) by self-play
+// (-u<iterations> file).
+//
+// The tuner is SPSA (simultaneous perturbation stochastic
+// approximation).  Each iteration perturbs every tuned parameter
+// up or down at random by its step, plays the two versions against
+// each other, and moves the parameters towards the version that
+// scored better.  Only the match result is needed, not an error
+// function, so games between bots are enough.
+//
+// The games are played by bots in separate processes (-t), one
+// per side, because the parameters are static.  Each game of a
+// pair is played with the same seeds and the colors swapped, so that
+// the setups and the luck of the draw cancel out.  The seeds also
+// make the bots limit their search by nodes (-n, or from -l), so the
+// games do not depend on machine load, and games run in parallel
+// (-p<threads>).
+//
+// Every checkpoint iterations the current parameters play a match
+// against the starting parameters.  The result is printed as Elo
+// with a 95% confidence interval and the parameters are written to
+// the file, with the result as a comment.  The file can then be
+// given to any bot with -e<file>.
+
+public class Tuner
+{
+	public static int threads = Runtime.getRuntime().availableProcessors();
+	public static int pairs = 2;		// game pairs per iteration
+	public static int checkpoint = 10;	// iterations between matches
+	public static int matchPairs = 20;	// game pairs per match
+	public static int maxMoves = 1000;	// moves before a draw
+
+	// SPSA gains, with the exponents recommended by Spall.
+	// The parameters move by at most a_k/c_k steps in an iteration.
+	private static final double a = 2;
+	private static final double A = 10;
+	private static final double ALPHA = 0.602;
+	private static final double GAMMA = 0.101;
+
+	private static final int[][] LAKES = {
+		{2,4}, {3,4}, {2,5}, {3,5}, {6,4}, {7,4}, {6,5}, {7,5} };
+
+	private int iterations;
+	private String file;
+	private int[] start;
+	private double[] theta;
+	private Random rnd = Settings.newRandom(9);
+	private PrintStream out;
+
+	public Tuner(int iterations, String file)
+	{
+		this.iterations = iterations;
+		this.file = file;
+		start = Params.value.clone();
+		theta = new double[Params.SIZE];
+		for (int i = 0; i < Params.SIZE; i++)
+			theta[i] = start[i];
+	}
+
+	public void run(PrintStream out) throws IOException
+	{
+		this.out = out;
+		File plus = File.createTempFile("plus", ".params");
+		File minus = File.createTempFile("minus", ".params");
+		File base = File.createTempFile("start", ".params");
+		plus.deleteOnExit();
+		minus.deleteOnExit();
+		base.deleteOnExit();
+		Params.write(base.getPath(), start, null);
+
+		for (int k = 0; k < iterations; k++) {
+			double ck = 1 / Math.pow(k + 1, GAMMA);
+			double ak = a / Math.pow(k + 1 + A, ALPHA);
+
+			int[] delta = new int[Params.SIZE];
+			int[] vplus = new int[Params.SIZE];
+			int[] vminus = new int[Params.SIZE];
+			for (int i = 0; i < Params.SIZE; i++) {
+				if (Params.step(i) != 0)
+					delta[i] = rnd.nextBoolean() ? 1 : -1;
+				vplus[i] = clamp(i, theta[i] + ck * Params.step(i) * delta[i]);
+				vminus[i] = clamp(i, theta[i] - ck * Params.step(i) * delta[i]);
+			}
+			Params.write(plus.getPath(), vplus, null);
+			Params.write(minus.getPath(), vminus, null);
+
+			int[] r = match(plus.getPath(), minus.getPath(), pairs);
+			double g = (double)(r[0] - r[2]) / (2 * pairs);
+			for (int i = 0; i < Params.SIZE; i++)
+				theta[i] = Math.max(Params.min(i), Math.min(Params.max(i),
+					theta[i] + ak / ck * Params.step(i) * g * delta[i]));
+
+			out.println("iteration " + (k+1) + ": +" + r[0] + " =" + r[1] + " -" + r[2]);
+			out.flush();
+
+			if ((k + 1) % checkpoint == 0 || k + 1 == iterations)
+				checkpoint(k + 1, base.getPath());
+		}
+	}
+
+	// plays the current parameters against the start
+	// and writes them with the result
+	private void checkpoint(int k, String base) throws IOException
+	{
+		int[] v = new int[Params.SIZE];
+		for (int i = 0; i < Params.SIZE; i++)
+			v[i] = clamp(i, theta[i]);
+		Params.write(file, v, null);
+
+		int[] r = match(file, base, matchPairs);
+		String result = "iteration " + k + " against the start: +" + r[0]
+			+ " =" + r[1] + " -" + r[2] + ", " + elo(r);
+		String changed = "";
+		for (int i = 0; i < Params.SIZE; i++)
+			if (v[i] != start[i])
+				changed += " " + Params.name[i] + " " + start[i] + "->" + v[i];
+		Params.write(file, v, result);
+		out.println(result);
+		out.println("changed:" + changed);
+		out.flush();
+	}
+
+	private static int clamp(int i, double v)
+	{
+		return (int)Math.max(Params.min(i), Math.min(Params.max(i), Math.round(v)));
+	}
+
+	// Elo difference and 95% confidence interval of a result
+	// (wins, draws, losses), from the score and its standard error
+	static String elo(int[] r)
+	{
+		int n = r[0] + r[1] + r[2];
+		if (n == 0)
+			return "no games";
+		double s = (r[0] + r[1] / 2.0) / n;
+		double var = (r[0] * (1 - s) * (1 - s)
+			+ r[1] * (0.5 - s) * (0.5 - s)
+			+ r[2] * s * s) / n;
+		double e = 1.96 * Math.sqrt(var / n);
+		return String.format("Elo %+.0f [%+.0f, %+.0f]",
+			elo(s), elo(s - e), elo(s + e));
+	}
+
+	private static double elo(double s)
+	{
+		s = Math.max(0.001, Math.min(0.999, s));
+		return 400 * Math.log10(s / (1 - s));
+	}
+
+	// Plays game pairs between the bots with parameter files p1 and p2.
+	// Returns the wins, draws and losses of p1.
+	private int[] match(final String p1, final String p2, int n)
+	{
+		final long[] seed = new long[2 * n];
+		for (int j = 0; j < seed.length; j++)
+			seed[j] = rnd.nextInt(Integer.MAX_VALUE) + 1L;
+		final int[] result = new int[2 * n];
+		final AtomicInteger next = new AtomicInteger();
+
+		Thread[] worker = new Thread[Math.max(1, threads)];
+		for (int i = 0; i < worker.length; i++) {
+			worker[i] = new Thread("Tuner " + i)
+			{
+				public void run()
+				{
+					int g;
+					while ((g = next.getAndIncrement()) < result.length) {
+						int pair = g / 2;
+						long red = seed[pair * 2];
+						long blue = seed[pair * 2 + 1];
+						if (g % 2 == 0)
+							result[g] = play(bot(p1, red), bot(p2, blue));
+						else
+							result[g] = -play(bot(p2, red), bot(p1, blue));
+					}
+				}
+			};
+			worker[i].start();
+		}
+		for (Thread t : worker)
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+
+		int[] r = new int[3];
+		for (int x : result)
+			r[1 - x]++;
+		return r;
+	}
+
+	private static ArrayList<String> bot(String params, long seed)
+	{
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(StrategoDriver.class.getName());
+		cmd.add("-e" + params);
+		cmd.add("-s" + seed);
+		cmd.add("-l" + Settings.aiLevel);
+		if (Settings.nodeLimit != 0)
+			cmd.add("-n" + Settings.nodeLimit);
+		if (Settings.depthLimit != 0)
+			cmd.add("-d" + Settings.depthLimit);
+		cmd.add(Settings.twoSquares ? "-2" : "-1");
+		cmd.add("-t");
+		return cmd;
+	}
+
+	// A referee for the manager protocol (see AITest).
+	// Returns 1 if red wins, -1 if blue wins and 0 for a draw.
+	// A bot that fails or makes an illegal move loses.  A move is
+	// illegal if it leaves the board, enters a lake or a square of
+	// its own color, moves a Bomb or the Flag, or moves more than
+	// one square other than a Nine along an empty line.  With -2
+	// the two-squares rule is kept as in Board.isTwoSquares().
+	// The more-squares rule (endless chases) is not refereed;
+	// such a game is a draw after maxMoves.
+	private static int play(ArrayList<String> red, ArrayList<String> blue)
+	{
+		Bot[] bot = new Bot[2];
+		int color = 0;
+		try {
+			bot[0] = new Bot(red);
+			bot[1] = new Bot(blue);
+
+			// owner[x][y] is 0 for red, 1 for blue, -1 if empty
+			int[][] owner = new int[10][10];
+			char[][] rank = new char[10][10];
+			int[][] piece = new int[10][10];	// its setup square
+			for (int x = 0; x < 10; x++)
+				for (int y = 0; y < 10; y++)
+					owner[x][y] = -1;
+
+			bot[0].send("RED opp 10 10");
+			bot[1].send("BLUE opp 10 10");
+			for (color = 0; color < 2; color++)
+				for (int i = 0; i < 4; i++) {
+					String row = bot[color].receive();
+					int y = color == 0 ? i : 6 + i;
+					for (int x = 0; x < 10; x++) {
+						owner[x][y] = color;
+						rank[x][y] = row.charAt(x);
+						piece[x][y] = x * 10 + y;
+					}
+				}
+
+			// the last three moves of each color, as
+			// (piece * 100 + from) * 100 + to with squares
+			// as x * 10 + y, for the two-squares rule
+			int[][] last = new int[2][3];
+			for (int[] l : last)
+				Arrays.fill(l, -1);
+
+			color = 0;
+			bot[0].send("START");
+			bot[0].sendBoard();
+			for (int n = 0; n < maxMoves; n++) {
+				String line = bot[color].receive();
+				String[] t = line.trim().split("\\s+");
+				int x = Integer.parseInt(t[0]);
+				int y = Integer.parseInt(t[1]);
+				int dx = 0, dy = 0;
+				if (t[2].equals("UP"))
+					dy = -1;
+				else if (t[2].equals("DOWN"))
+					dy = 1;
+				else if (t[2].equals("LEFT"))
+					dx = -1;
+				else if (t[2].equals("RIGHT"))
+					dx = 1;
+				else
+					throw new IOException("bad direction: " + line);
+				int m = t.length > 3 ? Integer.parseInt(t[3]) : 1;
+				int tx = x + dx * m;
+				int ty = y + dy * m;
+				if (x < 0 || x > 9 || y < 0 || y > 9
+					|| owner[x][y] != color
+					|| tx < 0 || tx > 9 || ty < 0 || ty > 9
+					|| isLake(tx, ty)
+					|| owner[tx][ty] == color
+					|| rank[x][y] == 'B' || rank[x][y] == 'F'
+					|| m < 1
+					|| (m > 1 && rank[x][y] != '9'))
+					throw new IOException("illegal move: " + line);
+				for (int i = 1; i < m; i++)
+					if (owner[x + dx * i][y + dy * i] >= 0
+						|| isLake(x + dx * i, y + dy * i))
+						throw new IOException("illegal move: " + line);
+
+				int mv = (piece[x][y] * 100 + x * 10 + y) * 100 + tx * 10 + ty;
+				int back = (piece[x][y] * 100 + tx * 10 + ty) * 100 + x * 10 + y;
+				if (Settings.twoSquares
+					&& last[color][2] == back
+					&& last[color][0] == back)
+					throw new IOException("two squares: " + line);
+				last[color][0] = last[color][1];
+				last[color][1] = last[color][2];
+				last[color][2] = mv;
+
+				char a = rank[x][y];
+				char d = rank[tx][ty];
+				String outcome;
+				if (owner[tx][ty] < 0) {
+					outcome = "OK";
+					owner[tx][ty] = color;
+					rank[tx][ty] = a;
+					piece[tx][ty] = piece[x][y];
+				} else {
+					outcome = fight(a, d);
+					if (outcome.equals("KILLS") || outcome.equals("VICTORY_FLAG")) {
+						owner[tx][ty] = color;
+						rank[tx][ty] = a;
+						piece[tx][ty] = piece[x][y];
+					} else if (outcome.equals("BOTHDIE"))
+						owner[tx][ty] = -1;
+					outcome += " " + a + " " + d;
+				}
+				owner[x][y] = -1;
+
+				String result = line.trim() + " " + outcome;
+				bot[color].send(result);
+				if (outcome.startsWith("VICTORY"))
+					return color == 0 ? 1 : -1;
+
+				boolean movable = false;
+				for (int i = 0; i < 10; i++)
+					for (int j = 0; j < 10; j++)
+						if (owner[i][j] == 1 - color
+							&& rank[i][j] != 'B' && rank[i][j] != 'F')
+							movable = true;
+				if (!movable)
+					return color == 0 ? 1 : -1;
+
+				color = 1 - color;
+				bot[color].send(result);
+				bot[color].sendBoard();
+			}
+			return 0;
+		} catch (Exception e) {
+			System.err.println((color == 0 ? "RED" : "BLUE") + " bot: " + e);
+			return color == 0 ? -1 : 1;
+		} finally {
+			for (Bot b : bot)
+				if (b != null)
+					b.quit();
+		}
+	}
+
+	private static boolean isLake(int x, int y)
+	{
+		for (int[] l : LAKES)
+			if (l[0] == x && l[1] == y)
+				return true;
+		return false;
+	}
+
+	// the outcome when a piece of rank a attacks rank d
+	private static String fight(char a, char d)
+	{
+		if (d == 'F')
+			return "VICTORY_FLAG";
+		if (d == 'B')
+			return a == '8' ? "KILLS" : "DIES";
+		if (a == d)
+			return "BOTHDIE";
+		if (a == 's')
+			return d == '1' ? "KILLS" : "DIES";
+		if (d == 's')
+			return "KILLS";
+		return a < d ? "KILLS" : "DIES";
+	}
+
+	private static class Bot
+	{
+		Process process;
+		PrintStream in;
+		BufferedReader out;
+
+		Bot(ArrayList<String> cmd) throws IOException
+		{
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+			process = pb.start();
+			in = new PrintStream(process.getOutputStream(), false, "US-ASCII");
+			out = new BufferedReader(new InputStreamReader(process.getInputStream(), "US-ASCII"));
+		}
+
+		void send(String s)
+		{
+			in.println(s);
+			in.flush();
+		}
+
+		// the board lines are not used by AITest
+		void sendBoard()
+		{
+			for (int i = 0; i < 10; i++)
+				in.println("..........");
+			in.flush();
+		}
+
+		String receive() throws IOException
+		{
+			String s = out.readLine();
+			if (s == null)
+				throw new IOException("bot died");
+			return s;
+		}
+
+		void quit()
+		{
+			send("QUIT");
+			try {
+				if (!process.waitFor(5, TimeUnit.SECONDS))
+					process.destroy();
+			} catch (InterruptedException e) {
+				process.destroy();
+			}
+		}
+	}
+}
@@ -66,8 +66,8 @@ public class WLobby implements MessageHandler
 	private JTextField txtCmd = null;
 	private JScrollPane scMain = null;
 	private JTextArea txtMain = null;
-	private JList lstUsers = null;
-	private DefaultListModel listModel = null;
+	private JList<String> lstUsers = null;
+	private DefaultListModel<String> listModel = null;
 	private JSplitPane jSplitPane = null;
 	private PopupMenu popUser = null;
 	private MenuItem mStartGame = null;
@@ -87,7 +87,7 @@ public class WLobby implements MessageHandler
 	
 	private WLobby()
 	{
-		listModel = new DefaultListModel();
+		listModel = new DefaultListModel<String>();
 		conn.register(this);
 	}
 	
@@ -143,7 +143,7 @@ public class WLobby implements MessageHandler
 	{
 		try
 		{
-			switch (Message.values()[type])
+			switch (Message.get(type))
 			{
 			case MSG:
 				print(Connection.decode(in.readInt(), in));
@@ -188,6 +188,17 @@ public class WLobby implements MessageHandler
 							listModel.remove(i);
 						}
 						break;
+					case '+':
+						String entry = cmd.next();
+						removeUser(entry.substring(1));
+						int j = 0;
+						while (j < listModel.size() && listModel.get(j).toString().compareTo(entry) < 0)
+							j++;
+						listModel.add(j, entry);
+						break;
+					case '-':
+						removeUser(cmd.next());
+						break;
 					}
 				}
 				return true;
@@ -202,6 +213,19 @@ public class WLobby implements MessageHandler
 		}
 	}
 	
+	// entries are the alias after a one character prefix
+	private void removeUser(String alias)
+	{
+		for (int i=0;i<listModel.size();i++)
+		{
+			if (listModel.get(i).toString().substring(1).equals(alias))
+			{
+				listModel.remove(i);
+				return;
+			}
+		}
+	}
+	
 	private void print(String s)
 	{
 		//TODO: fix it so that you can scroll with out it harassing you
@@ -414,11 +438,11 @@ public class WLobby implements MessageHandler
 		return txtMain;
 	}
 
-	private JList getLstUsers()
+	private JList<String> getLstUsers()
 	{
 		if (lstUsers == null)
 		{
-			lstUsers = new JList(listModel);
+			lstUsers = new JList<String>(listModel);
 			lstUsers.setCellRenderer(new ColorListCellRenderer());
 			lstUsers.addKeyListener(setFocus);
 			lstUsers.addMouseListener(new MouseAdapter()
@@ -21,6 +21,7 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.MouseInfo;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -31,13 +32,18 @@ import java.awt.event.WindowListener;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 
+import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Move;
@@ -55,6 +61,8 @@ public class WView extends View implements MoveListener
 	private JPanel board = null;
 	private JPanel comp = null;
 	private JPanel user = null;
+	private JComponent dragPane = null;
+	private Rectangle dragBounds = null;	// where the dragged piece is drawn
 	protected JMenuBar jMenuBar = null;
 	private JButton newGameButton = null;
 	private JButton loadSkinButton = null;
@@ -74,6 +82,11 @@ public class WView extends View implements MoveListener
 	private boolean warn = false;
 	private boolean clientMode = false;
 	protected boolean splashed;
+	private Timer revealTimer = null;
+	private boolean revealing = false;	// updates wait for the reveal
+	private boolean deferred = false;
+	private ArrayList<Spot> heldSpots = new ArrayList<Spot>();	// network updates
+	private ArrayList<Piece> heldPieces = new ArrayList<Piece>();	// held by a reveal
 	
 	public WView()
 	{
@@ -96,7 +109,22 @@ public class WView extends View implements MoveListener
 		//resize();
 	}
 	
+	// a square or tray slot of a network game
 	public void update(Spot s, Piece p)
+	{
+		synchronized (this)
+		{
+			if (revealing)
+			{
+				heldSpots.add(s);
+				heldPieces.add(p);
+				return;
+			}
+			show(s, p);
+		}
+	}
+
+	private void show(Spot s, Piece p)
 	{
 		if (s == Board.IN_TRAY)
 		{
@@ -131,14 +159,115 @@ public class WView extends View implements MoveListener
 		Settings.topColor = (c+1)%2;
 	}
 	
+	// Each button repaints itself when its icon changes, so
+	// only the squares the move touched are painted again,
+	// instead of the whole frame after every move.
+
 	public void update()
 	{		
+		synchronized (this)
+		{
+			if (revealing)
+			{
+				deferred = true;
+				return;
+			}
+		}
+
 		for (int i=0;i<10;i++)
 		for (int j=0;j<10;j++)
 			grid[i][j].setPiece(engine.getBoardPiece(i, j));
 		updateTray();
-		
-		getJFrame().repaint();
+	}
+
+	// An unknown computer piece is about to attack.  Its square
+	// shows the rank for Settings.revealTime, and the board is
+	// brought up to date when the time is up.  The engine does not
+	// wait, so a game plays at search speed; a reveal that comes
+	// while another is shown first brings the board up to date,
+	// so the window is never more than one reveal behind.
+	public void reveal(Move m)
+	{
+		if (Settings.revealTime <= 0)
+			return;
+
+		synchronized (this)
+		{
+			revealing = false;
+			deferred = false;
+		}
+		update();
+
+		Piece fp = m.getPiece();
+		boolean shown = fp.isShown();
+		fp.setShown(true);
+		grid[m.getFromX()][m.getFromY()].setPiece(fp);
+		fp.setShown(shown);
+
+		synchronized (this)
+		{
+			revealing = true;
+			getRevealTimer().setInitialDelay(Settings.revealTime);
+			getRevealTimer().restart();
+		}
+	}
+
+	// The same in a network game.  The server sends REVEAL just
+	// before the updates of the attack, which arrive at once, so
+	// they are held (see update(Spot, Piece)) until the time is up.
+	public void reveal(Spot s, Piece p)
+	{
+		if (Settings.revealTime <= 0)
+			return;
+
+		synchronized (this)
+		{
+			showHeld();
+			show(s, p);
+			revealing = true;
+			getRevealTimer().setInitialDelay(Settings.revealTime);
+			getRevealTimer().restart();
+		}
+	}
+
+	// in the order they came, before any update that follows
+	private synchronized void showHeld()
+	{
+		revealing = false;
+		for (int i=0;i<heldSpots.size();i++)
+			show(heldSpots.get(i), heldPieces.get(i));
+		heldSpots.clear();
+		heldPieces.clear();
+	}
+
+	private void endReveal()
+	{
+		synchronized (this)
+		{
+			if (!revealing)
+				return;
+			showHeld();
+			if (!deferred)
+				return;
+			deferred = false;
+		}
+		update();
+	}
+
+	private Timer getRevealTimer()
+	{
+		if (revealTimer == null)
+		{
+			revealTimer = new Timer(Settings.revealTime, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					endReveal();
+				}
+			});
+			revealTimer.setRepeats(false);
+		}
+		return revealTimer;
 	}
 
 	public void setPlayMode()
@@ -155,13 +284,10 @@ public class WView extends View implements MoveListener
 		jMenuBar.revalidate();
 	}
 
+	// Every tray button is set once, so a button that
+	// keeps its piece is not blanked and painted again.
 	private void updateTray()
 	{
-		for (int j=0;j<40;j++)
-			trayUser[j].setPiece(null);
-		for (int k=0;k<40;k++)
-			trayComp[k].setPiece(null);
-		
 		int j = 0, k = 0;
 		
 		for (int i=0;i<engine.getTraySize();i++)
@@ -175,6 +301,11 @@ public class WView extends View implements MoveListener
 				trayComp[k].setPiece(engine.getTrayPiece(i));
 				k++;
 			}
+
+		for (;j<40;j++)
+			trayUser[j].setPiece(null);
+		for (;k<40;k++)
+			trayComp[k].setPiece(null);
 	}
 	
 	public void gameOver(int winner)
@@ -224,9 +355,34 @@ public class WView extends View implements MoveListener
 		}
 	}
 	
+	// The dragged piece is drawn on the glass pane, and only
+	// the area it left and the area it moved to are repainted.
 	public void dragAction()
 	{
-		getJFrame().repaint();
+		Rectangle r = dragRect();
+		if (r != null && r.equals(dragBounds))
+			return;
+		if (dragBounds != null)
+			getDragPane().repaint(dragBounds);
+		if (r != null)
+			getDragPane().repaint(r);
+		dragBounds = r;
+	}
+
+	private Rectangle dragRect()
+	{
+		if (splashed || PieceButton.dragIcon < 0)
+			return null;
+
+		ImageIcon icon = skin.scaledSkins[PieceButton.dragIcon];
+		if (icon == null)
+			return null;
+
+		Point p = MouseInfo.getPointerInfo().getLocation();
+		SwingUtilities.convertPointFromScreen(p, getDragPane());
+		return new Rectangle(p.x - icon.getIconWidth()/2,
+			p.y - icon.getIconHeight()/2,
+			icon.getIconWidth(), icon.getIconHeight());
 	}
 	
 	private void resize()
@@ -239,8 +395,19 @@ public class WView extends View implements MoveListener
 		user.setBounds(new Rectangle((int)(5.0/9.0 * x) + 10, (y/2) + 10, (int)(4.0/9.0 * x) - ((int)(4.0/9.0 * x))%8, y/2 - (y/2)%5));
 		getJContentPane().revalidate();
 		
-		skin.resize(x, y);
+		// the skin is scaled in the background, the icons
+		// are refreshed when it is ready
+		skin.resizeLater(x, y, new Runnable()
+		{
+			public void run()
+			{
+				refreshIcons();
+			}
+		});
+	}
 
+	private void refreshIcons()
+	{
 		for (int i=0;i<10;i++)
 		for (int j=0;j<10;j++)
 		{
@@ -289,17 +456,13 @@ public class WView extends View implements MoveListener
 			
 			g.drawImage(skin.scaledSplash, x, y, null);
 		}
-		else if (PieceButton.dragIcon >= 0)
-		{
-		g.drawImage(skin.scaledSkins[PieceButton.dragIcon].getImage(), 
-				MouseInfo.getPointerInfo().getLocation().x
-					- skin.scaledSkins[PieceButton.dragIcon].getIconWidth()/2
-					- getJFrame().getLocation().x, 
-				MouseInfo.getPointerInfo().getLocation().y
-					- skin.scaledSkins[PieceButton.dragIcon].getIconHeight()/2
-					- getJFrame().getLocation().y,
-				null);
-		}
+	}
+
+	private void paintDrag(Graphics g)
+	{
+		if (dragBounds != null && PieceButton.dragIcon >= 0)
+			g.drawImage(skin.scaledSkins[PieceButton.dragIcon].getImage(),
+				dragBounds.x, dragBounds.y, null);
 	}
 	
 	private void loadSkin() throws Exception
@@ -481,6 +644,8 @@ public class WView extends View implements MoveListener
 			jFrame.setJMenuBar(getJMenuBar());
 			jFrame.setSize(930, 575);
 			jFrame.setContentPane(getJContentPane());
+			jFrame.setGlassPane(getDragPane());
+			getDragPane().setVisible(true);
 			jFrame.setTitle("Stratego");
 			jFrame.addComponentListener(new ComponentListener()
 			{
@@ -534,6 +699,25 @@ public class WView extends View implements MoveListener
 		return jContentPane;
 	}
 
+	// A glass pane without mouse listeners lets the mouse
+	// through to the buttons under it.
+	private JComponent getDragPane()
+	{
+		if (dragPane == null)
+		{
+			dragPane = new JComponent()
+			{
+				public void paintComponent(Graphics g)
+				{
+					paintDrag(g);
+				}
+				private static final long serialVersionUID = 1L;
+			};
+			dragPane.setOpaque(false);
+		}
+		return dragPane;
+	}
+
 	private JPanel getBoard()
 	{
 		if (board == null)
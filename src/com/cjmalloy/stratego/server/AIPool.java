@@ -0,0 +1,140 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Worker threads for the searches of every AISeat.
+//
+// A search takes a whole core for the length of a move, so a thread
+// per game would let a few games take the box.  There are a fixed
+// number of workers (a core is left for the reactors) and at most
+// MAX_SEATS games against the computer.  A seat has at most one
+// search queued and the queue is first come first served, so every
+// game gets its turn.
+//
+// Each game has GAME_BUDGET ms to think, spread over the moves
+// still to come and capped at MOVE_TIME a move.  When more searches
+// are waiting than there are workers, each one is given a share of
+// the slice instead, so the human still waits about MOVE_TIME.
+
+public class AIPool extends Thread
+{
+	public static final int WORKERS = Math.max(1,
+		Runtime.getRuntime().availableProcessors() - 1);
+	public static final int MAX_SEATS = 4 * WORKERS;
+	public static final long GAME_BUDGET = 300000;	// ms a game
+	public static final long MOVE_TIME = 2000;	// ms a move at most
+	public static final long MIN_MOVE_TIME = 100;	// ms a move at least
+	private static final int MOVES_AHEAD = 40;	// budget spread over
+
+	private static LinkedBlockingQueue<AISeat> queue = new LinkedBlockingQueue<AISeat>();
+	private static AtomicInteger busy = new AtomicInteger();
+	private static int seats = 0;
+	private static boolean started = false;
+
+	private AIPool(int i)
+	{
+		super("AI " + i);
+		setDaemon(true);
+		setPriority(Thread.NORM_PRIORITY - 1);
+	}
+
+	// a seat for a new game, or null when all are taken
+	public static synchronized AISeat seat()
+	{
+		if (seats >= MAX_SEATS)
+			return null;
+		if (!started)
+		{
+			for (int i=0;i<WORKERS;i++)
+				new AIPool(i).start();
+			started = true;
+		}
+		seats++;
+		return new AISeat();
+	}
+
+	public static synchronized boolean available()
+	{
+		return seats < MAX_SEATS;
+	}
+
+	public static synchronized int seats()
+	{
+		return seats;
+	}
+
+	// searches running or waiting
+	public static int load()
+	{
+		return busy.get() + queue.size();
+	}
+
+	static synchronized void release()
+	{
+		seats--;
+	}
+
+	static void submit(AISeat seat)
+	{
+		queue.add(seat);
+	}
+
+	// the time for the next move of a game with remaining ms left
+	static long moveTime(long remaining)
+	{
+		long t = Math.min(MOVE_TIME, remaining / MOVES_AHEAD);
+		int load = load();
+		if (load > WORKERS)
+			t = t * WORKERS / load;
+		return Math.max(MIN_MOVE_TIME, t);
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			AISeat seat;
+			try
+			{
+				seat = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				continue;
+			}
+
+			busy.incrementAndGet();
+			try
+			{
+				seat.run();
+			}
+			catch (RuntimeException e)
+			{
+				// a bad game must not stop the others
+				e.printStackTrace();
+			}
+			finally
+			{
+				busy.decrementAndGet();
+			}
+		}
+	}
+}
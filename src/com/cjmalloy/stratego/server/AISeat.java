@@ -0,0 +1,180 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.IOException;
+
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Spot;
+import com.cjmalloy.stratego.player.AI;
+import com.cjmalloy.stratego.player.CompControls;
+import com.cjmalloy.stratego.server.shared.Message;
+
+// The computer as a player in a Game.
+//
+// The seat looks like a connection to the game, which writes to it
+// as usual (the output goes nowhere), and it plays through the
+// engine of the game as the AI plays through AIEngine.  The AI
+// always plays the top color (Settings.topColor), so the seat is
+// player 0.  Its setup and its searches run on the AIPool.
+//
+// Everything that touches the engine holds the game lock, as the
+// mailboxes of the human players do.
+
+public class AISeat extends ServerConnection implements CompControls
+{
+	public static final String ALIAS = "computer";
+	private static final int MAX_ILLEGAL = 3;	// moves refused before resigning
+
+	private Game game = null;
+	private ServerEngine engine = null;
+	private AI ai = null;
+	private int color;
+	private boolean thinking = false;
+	private boolean closed = false;
+	private long used = 0;	// ms of the game budget spent
+	private int illegal = 0;
+
+	AISeat()
+	{
+		alias = ALIAS;
+		minorVersion = Message.PROTOCOL_MINOR_VERSION;
+	}
+
+	// the game has its engine, with the game locked
+	public void start(Game g, ServerEngine e, int c)
+	{
+		game = g;
+		engine = e;
+		color = c;
+		ai = new AI(engine.getBoard(), this);
+		thinking = true;
+		AIPool.submit(this);
+	}
+
+	// the game changed, with the game locked
+	public void update()
+	{
+		if (closed || thinking || engine == null)
+			return;
+		if (!engine.isPlaying() || engine.getTurn() != color)
+			return;
+		thinking = true;
+		AIPool.submit(this);
+	}
+
+	// on an AIPool thread
+	void run()
+	{
+		if (closed)
+			return;
+
+		if (!engine.isPlaying())
+		{
+			setup();
+			return;
+		}
+
+		ai.setTimeLimit(AIPool.moveTime(AIPool.GAME_BUDGET - used));
+		long start = System.currentTimeMillis();
+		ai.run();
+		used += System.currentTimeMillis() - start;
+	}
+
+	private void setup()
+	{
+		synchronized (game)
+		{
+			if (closed)
+				return;
+			try
+			{
+				ai.getBoardSetup();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			// places what the setup did not, and
+			// starts the game if the human is ready
+			engine.play(color);
+			thinking = false;
+			game.update();
+		}
+	}
+
+	public void aiReturnPlace(Piece p, Spot s)
+	{
+		// the AI also fills in the human's side if it is empty
+		if (p.getColor() == color)
+			engine.setupPlacePiece(p, s);
+	}
+
+	public void aiReturnMove(Move m)
+	{
+		synchronized (game)
+		{
+			if (closed || !engine.isPlaying())
+				return;
+
+			if (m == null || m.getPiece() == null)
+			{
+				// trapped
+				engine.resign(color);
+				return;
+			}
+
+			engine.requestMove(m, color);
+			if (engine.isPlaying() && engine.getTurn() == color)
+			{
+				if (++illegal >= MAX_ILLEGAL)
+				{
+					engine.resign(color);
+					return;
+				}
+			}
+			else
+				illegal = 0;
+
+			thinking = false;
+			game.update();
+		}
+	}
+
+	public void play() {}
+
+	public boolean connected()
+	{
+		return !closed;
+	}
+
+	// the game is over, a search still running is ignored
+	public synchronized void close()
+	{
+		if (closed)
+			return;
+		closed = true;
+		AIPool.release();
+	}
+
+	public String status()
+	{
+		return "Computer";
+	}
+}
@@ -0,0 +1,54 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// Direct buffers for output a socket could not take at once.
+//
+// A packet is written to the socket straight from the frame it was
+// built in.  Only what the socket does not take is copied, into
+// buffers of this pool, which go back to the pool once written.
+// A direct buffer is written by the channel without being copied
+// again, and keeping them saves allocating one for every packet.
+
+class BufferPool
+{
+	static final int SIZE = 1<<13;
+	private static final int MAX_IDLE = 1<<10;	// at most 8 MB unused
+
+	private static ArrayList<ByteBuffer> pool = new ArrayList<ByteBuffer>();
+
+	static synchronized ByteBuffer get()
+	{
+		if (pool.isEmpty())
+			return ByteBuffer.allocateDirect(SIZE);
+		ByteBuffer bb = pool.remove(pool.size()-1);
+		bb.clear();
+		return bb;
+	}
+
+	// buffers not from the pool are left to the collector
+	static synchronized void put(ByteBuffer bb)
+	{
+		if (!bb.isDirect() || bb.capacity() != SIZE || pool.size() >= MAX_IDLE)
+			return;
+		pool.add(bb);
+	}
+}
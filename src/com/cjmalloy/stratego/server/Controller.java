@@ -66,7 +66,7 @@ public class Controller implements MessageHandler
 
 	public boolean read(int type, DataInputStream in)
 	{
-		switch(Message.values()[type])
+		switch(Message.get(type))
 		{
 		case CMD:
 			try
@@ -210,6 +210,34 @@ public class Controller implements MessageHandler
 					println(owner.getGameServer().status());
 					println(owner.getGameServer().games());
 					break;
+				case 'w': // watch a game
+				case 'W':
+					if (!kbd.hasNext())
+					{
+						owner.getGameServer().unwatch(conn);
+						break;
+					}
+					String player = kbd.next().substring(1);
+					// only an idle player can watch
+					if (!owner.getGameServer().isIdle(conn))
+						println("Leave your own game or queue first (w alone stops watching).");
+					else if (!owner.getGameServer().watch(conn, player))
+						println(player + " is not playing.");
+					break;
+				case 'm': // metrics
+				case 'M':
+					if (privilege > 1) break;
+
+					conn.startSending();
+					try
+					{
+						conn.println(Metrics.text());
+					}
+					finally
+					{
+						conn.stopSending();
+					}
+					break;
 				case 'c': // list remote controllers
 				case 'C':
 					if (privilege > 1) break;
@@ -365,7 +393,11 @@ public class Controller implements MessageHandler
 						conn.println("u? - what's my username?");
 						conn.println("s - status");
 						conn.println("g - list games");
+						conn.println("w - watch a game, w alone to stop watching");
+						conn.println("\tusage: w user" +
+								"\n\texample: w mike (watch mike's game)");
 						conn.println("c - (admin) list controllers");
+						conn.println("m - (admin) server metrics");
 						conn.println("r - (admin) restart (kills all games)");
 						conn.println("p - (admin) change port");
 						conn.println("\tusage: p port" +
@@ -19,12 +19,16 @@ package com.cjmalloy.stratego.server;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Move;
 import com.cjmalloy.stratego.Piece;
 import com.cjmalloy.stratego.Rank;
 import com.cjmalloy.stratego.Spot;
+import com.cjmalloy.stratego.server.shared.Connection;
 import com.cjmalloy.stratego.server.shared.Message;
 import com.cjmalloy.stratego.server.shared.MessageHandler;
 
@@ -62,10 +66,26 @@ public class Game
 		}
 
 		public boolean read(int type, DataInputStream in)
+		{
+			// an AISeat moves from a pool thread
+			long start = System.nanoTime();
+			boolean ret;
+			synchronized (game)
+			{
+				ret = handle(type, in);
+			}
+			// from the move arriving to both players having
+			// the update, waiting for the game included
+			if (type == Message.MOVE.ordinal())
+				Metrics.moveRelay.record(System.nanoTime() - start);
+			return ret;
+		}
+
+		private boolean handle(int type, DataInputStream in)
 		{
 			try
 			{
-				switch (Message.values()[type])
+				switch (Message.get(type))
 				{
 				case MOVE:
 					int x1, x2, y1, y2, rank;
@@ -110,6 +130,10 @@ public class Game
 		}
 	}
 
+	private static AtomicInteger games = new AtomicInteger();
+
+	public final int id = games.incrementAndGet();
+	GameRecord record = null;
 	private ServerEngine engine = null;
 	public ServerConnection player[] = new ServerConnection[2];
 	private Mailbox mailboxes[] = new Mailbox[2];
@@ -121,13 +145,14 @@ public class Game
 		
 		player[0] = p1;
 		player[1] = p2;
+		record = new GameRecord(id, p1.alias, p2.alias);
 		mailboxes[0] = new Mailbox(this, 0);
 		mailboxes[1] = new Mailbox(this, 1);
 		player[0].register(mailboxes[0]);
 		player[1].register(mailboxes[1]);
 	}
 
-	public void start()
+	public synchronized void start()
 	{
 		for (int i=0;i<2;i++)
 		{
@@ -143,23 +168,38 @@ public class Game
 			}
 		}
 		
+		log("start " + player[0].alias + " " + player[1].alias);
+		record.start();
 		engine = new ServerEngine(this);
 		engine.newGame();
+		for (int i=0;i<2;i++)
+			if (player[i] instanceof AISeat)
+				((AISeat)player[i]).start(this, engine, i);
 		update();
 	}
 
 	public void gameOver(int c)
 	{
+		log("over " + c);
+		record.gameOver(c);
+		over = true;
 		update();
 		for (int i=0;i<2;i++)
 		{
 			player[i].writeInt(Message.GAMEOVER.ordinal());
 			player[i].writeInt(c);
 		}
+
+		Connection.Frame f = new Connection.Frame();
+		f.begin();
+		f.writeInt(Message.GAMEOVER.ordinal());
+		f.writeInt(c);
+		sendSpectators(frame(f));
 	}
 	
 	public void disc()
 	{
+		log("disc");
 		for (int i=0;i<2;i++)
 			mailboxes[i].disconnect();
 
@@ -170,92 +210,382 @@ public class Game
 	{
 		for (int i=0;i<2;i++)
 		{
-			player[i].startSending();
-			try
-			{
-				for (int j=0;j<10;j++)
-				for (int k=0;k<10;k++)
-				{
-					player[i].writeInt(Message.GRID.ordinal());
+			if (player[i] instanceof AISeat)
+				((AISeat)player[i]).update();
+			else if (player[i].minorVersion >= Message.DELTA_MINOR_VERSION)
+				updateDelta(i);
+			else
+				updateFull(i);
+		}
+		updateSpectators();
+	}
 
-					player[i].writeInt(j);
-					player[i].writeInt(k);
-					if (engine.getBoardPiece(j, k) == null || engine.getBoardPiece(j, k).getColor() < 0)
-					{
-						player[i].writeInt(-1);
-						player[i].writeInt(Rank.NIL.ordinal());
-					}
-					else
-					{
-						if (engine.getBoardPiece(j, k).isShown())
-						{
-							player[i].writeInt(engine.getBoardPiece(j, k).getColor()+2);
-							player[i].writeInt(engine.getBoardPiece(j, k).getActualRank().ordinal());
-						}
-						else
-						{
-							player[i].writeInt(engine.getBoardPiece(j, k).getColor());
-							if (engine.getBoardPiece(j, k).getColor() == i)
-								player[i].writeInt(engine.getBoardPiece(j, k).getActualRank().ordinal());
-							else
-								player[i].writeInt(Rank.UNKNOWN.ordinal());
-						}
-					}
-				}
+	// An unknown piece is about to attack.  The updates of the
+	// attack follow at once, because the game does not wait (see
+	// Engine.reveal()), so a client that is only sent the attacker
+	// in an update of its own shows it for no time at all.  Newer
+	// clients are sent REVEAL instead: the square and the rank of
+	// the attacker, as in a GRID message.  They show it and hold
+	// the updates that follow for their reveal time (see
+	// WView.reveal(Spot, Piece)).  Older clients get the update
+	// with the attacker shown, as before.
+	public void reveal(Move m)
+	{
+		Piece fp = m.getPiece();
+		boolean shown = fp.isShown();
+		fp.setShown(true);
 
-				int p = 0,
-					q = 0;
-				for (int j=0;j<engine.getTraySize();j++)
-				{
-					player[i].writeInt(Message.TRAY.ordinal());
+		Connection.Frame f = new Connection.Frame();
+		f.begin();
+		f.writeInt(Message.REVEAL.ordinal());
+		f.writeInt(m.getFromX());
+		f.writeInt(m.getFromY());
+		f.writeInt(viewColor(fp));
+		f.writeInt(fp.getActualRank().ordinal());
+		byte[] frame = frame(f);
 
-					if (engine.getTrayPiece(j).getColor() == 0)
-					{
-						player[i].writeInt(p);
-						p++;
-					}
-					else
-					{
-						player[i].writeInt(q);
-						q++;
-					}
-					if (engine.getTrayPiece(j).isShown())
-					{
-						player[i].writeInt(engine.getTrayPiece(j).getColor()+2);
-						player[i].writeInt(engine.getTrayPiece(j).getActualRank().ordinal());
-					}
-					else
-					{
-						player[i].writeInt(engine.getTrayPiece(j).getColor());
-						if (engine.getTrayPiece(j).getColor() == i)
-							player[i].writeInt(engine.getTrayPiece(j).getActualRank().ordinal());
-						else
-							player[i].writeInt(Rank.UNKNOWN.ordinal());
-					}
-				}
+		for (int i=0;i<2;i++)
+		{
+			if (player[i] instanceof AISeat)
+				continue;
+			if (player[i].minorVersion >= Message.REVEAL_MINOR_VERSION)
+				player[i].sendShared(frame);
+			else if (player[i].minorVersion >= Message.DELTA_MINOR_VERSION)
+				updateDelta(i);
+			else
+				updateFull(i);
+		}
+		// both players see the attacker, so spectators may too
+		for (Spectator s : spectators)
+			if (s.conn.minorVersion >= Message.REVEAL_MINOR_VERSION)
+				s.conn.sendShared(frame);
+		fp.setShown(shown);
+	}
+
+	// the color a player sees: -1 if empty, color+2 if shown
+	private int viewColor(Piece p)
+	{
+		if (p == null || p.getColor() < 0)
+			return -1;
+		if (p.isShown())
+			return p.getColor()+2;
+		return p.getColor();
+	}
+
+	// the rank player i (or a SPECTATOR) sees
+	private int viewRank(Piece p, int i)
+	{
+		if (p == null || p.getColor() < 0)
+			return Rank.NIL.ordinal();
+		if (p.isShown() || p.getColor() == i)
+			return p.getActualRank().ordinal();
+		// the whole board once the game is decided
+		if (i == SPECTATOR && over)
+			return p.getActualRank().ordinal();
+		return Rank.UNKNOWN.ordinal();
+	}
+
+	// GRID and TRAY messages for every square and tray slot
+	private void updateFull(int i)
+	{
+		player[i].startSending();
+		try
+		{
+			for (int j=0;j<10;j++)
+			for (int k=0;k<10;k++)
+			{
+				player[i].writeInt(Message.GRID.ordinal());
+
+				player[i].writeInt(j);
+				player[i].writeInt(k);
+				player[i].writeInt(viewColor(engine.getBoardPiece(j, k)));
+				player[i].writeInt(viewRank(engine.getBoardPiece(j, k), i));
+			}
 
-				for (;p<40;p++)
+			int p = 0,
+				q = 0;
+			for (int j=0;j<engine.getTraySize();j++)
+			{
+				player[i].writeInt(Message.TRAY.ordinal());
+
+				if (engine.getTrayPiece(j).getColor() == 0)
 				{
-					player[i].writeInt(Message.TRAY.ordinal());
 					player[i].writeInt(p);
-					player[i].writeInt(0);
-					player[i].writeInt(Rank.NIL.ordinal());
+					p++;
 				}
-
-				for (;q<40;q++)
+				else
 				{
-					player[i].writeInt(Message.TRAY.ordinal());
 					player[i].writeInt(q);
-					player[i].writeInt(1);
-					player[i].writeInt(Rank.NIL.ordinal());
+					q++;
 				}
+				player[i].writeInt(viewColor(engine.getTrayPiece(j)));
+				player[i].writeInt(viewRank(engine.getTrayPiece(j), i));
 			}
-			finally
+
+			for (;p<40;p++)
 			{
-				player[i].stopSending();
+				player[i].writeInt(Message.TRAY.ordinal());
+				player[i].writeInt(p);
+				player[i].writeInt(0);
+				player[i].writeInt(Rank.NIL.ordinal());
+			}
+
+			for (;q<40;q++)
+			{
+				player[i].writeInt(Message.TRAY.ordinal());
+				player[i].writeInt(q);
+				player[i].writeInt(1);
+				player[i].writeInt(Rank.NIL.ordinal());
+			}
+		}
+		finally
+		{
+			player[i].stopSending();
+		}
+	}
+
+	// A move changes a square or two and perhaps the tray, yet
+	// updateFull() sends all 100 squares and 80 tray slots, about
+	// 3KB per player per move.  Newer clients are sent one DELTA
+	// message with just the squares and slots that changed since
+	// the last update, such as a move, a revealed rank or a captured
+	// piece.  Every KEYFRAME_INTERVAL updates, starting with the
+	// first, everything is sent, so a client resynchronizes.
+	//
+	// DELTA: square count, (square x*10+y, color+1, rank) per square,
+	//        slot count, (slot, color+1, rank) per tray slot,
+	// all as varints.  Slots 0-39 are color 0 and 40-79 color 1.
+
+	private static final int KEYFRAME_INTERVAL = 32;
+	private static final int SQUARES = 100;
+	private static final int SLOTS = 80;
+	private int sent[][] = new int[2][2*(SQUARES+SLOTS)];	// color, rank
+	private int updates[] = new int[2];
+
+	// a color and rank for every square and tray slot
+	private int[] view(int i)
+	{
+		int view[] = new int[2*(SQUARES+SLOTS)];
+		for (int j=0;j<10;j++)
+		for (int k=0;k<10;k++)
+		{
+			Piece p = engine.getBoardPiece(j, k);
+			view[2*(j*10+k)] = viewColor(p);
+			view[2*(j*10+k)+1] = viewRank(p, i);
+		}
+
+		for (int s=0;s<SLOTS;s++)
+		{
+			view[2*(SQUARES+s)] = s < 40 ? 0 : 1;
+			view[2*(SQUARES+s)+1] = Rank.NIL.ordinal();
+		}
+		int p = 0,
+			q = 40;
+		for (int j=0;j<engine.getTraySize();j++)
+		{
+			Piece tp = engine.getTrayPiece(j);
+			int s = SQUARES + (tp.getColor() == 0 ? p++ : q++);
+			view[2*s] = viewColor(tp);
+			view[2*s+1] = viewRank(tp, i);
+		}
+		return view;
+	}
+
+	private void updateDelta(int i)
+	{
+		int view[] = view(i);
+		boolean keyframe = (updates[i]++ % KEYFRAME_INTERVAL == 0);
+		int last[] = sent[i];
+		int squares = 0,
+			slots = 0;
+		boolean changed[] = new boolean[SQUARES+SLOTS];
+		for (int s=0;s<SQUARES+SLOTS;s++)
+		{
+			changed[s] = keyframe
+				|| view[2*s] != last[2*s]
+				|| view[2*s+1] != last[2*s+1];
+			if (!changed[s])
+				continue;
+			if (s < SQUARES)
+				squares++;
+			else
+				slots++;
+		}
+		sent[i] = view;
+		if (squares == 0 && slots == 0)
+			return;
+
+		player[i].startSending();
+		try
+		{
+			player[i].writeInt(Message.DELTA.ordinal());
+			player[i].writeVarint(squares);
+			for (int s=0;s<SQUARES+SLOTS;s++)
+			{
+				if (s == SQUARES)
+					player[i].writeVarint(slots);
+				if (!changed[s])
+					continue;
+				player[i].writeVarint(s < SQUARES ? s : s - SQUARES);
+				player[i].writeVarint(view[2*s] + 1);
+				player[i].writeVarint(view[2*s+1]);
 			}
+		}
+		finally
+		{
+			player[i].stopSending();
+		}
+	}
+	
+	// ids follow on from those of an earlier run
+	static void skipIds(int last)
+	{
+		int n;
+		while ((n = games.get()) < last && !games.compareAndSet(n, last));
+	}
+
+	// Until the game is over, spectators see the ranks both
+	// players see (the pieces that have been shown) and nothing
+	// else, so that a player cannot watch their own game to learn
+	// the other's pieces.  Any delay would only postpone the leak:
+	// a Flag or a Bomb that has not moved is still where it was
+	// some moves ago.  When the game is decided the last update
+	// shows spectators every rank.
+	//
+	// All spectators are sent the same frames.  A frame is encoded
+	// once, when a view is released, and queued for each spectator
+	// by reference (see ServerConnection.sendShared()).  A new
+	// spectator is sent a frame of its own with everything the
+	// others have been shown.
+
+	private static final int SPECTATOR = -2;
+
+	private class Spectator implements MessageHandler
+	{
+		ServerConnection conn;
+
+		Spectator(ServerConnection c)
+		{
+			conn = c;
+		}
+
+		public boolean read(int type, DataInputStream in)
+		{
+			return false;
+		}
+
+		public void bye()
+		{
+			gameServer.unwatch(conn);
+		}
+	}
 
+	private ArrayList<Spectator> spectators = new ArrayList<Spectator>();
+	private int shown[] = null;	// the view spectators have
+	private boolean over = false;
+
+	public synchronized void watch(ServerConnection c)
+	{
+		Spectator s = new Spectator(c);
+		c.register(s);
+		spectators.add(s);
+
+		Connection.Frame f = new Connection.Frame();
+		f.begin();
+		f.writeInt(Message.SETUP.ordinal());
+		f.writeInt(1);
+		if (shown != null)
+			writeDelta(f, null, shown);
+		c.sendShared(frame(f));
+	}
+
+	public synchronized void unwatch(ServerConnection c)
+	{
+		for (int i=0;i<spectators.size();i++)
+		{
+			Spectator s = spectators.get(i);
+			if (s.conn != c)
+				continue;
+			spectators.remove(i);
+			// not while it is saying bye to its handlers
+			if (c.connected())
+				c.unregister(s);
+			return;
+		}
+	}
+
+	public synchronized ArrayList<ServerConnection> spectators()
+	{
+		ArrayList<ServerConnection> l = new ArrayList<ServerConnection>();
+		for (Spectator s : spectators)
+			l.add(s.conn);
+		return l;
+	}
+
+	private void updateSpectators()
+	{
+		int view[] = view(SPECTATOR);
+		if (shown != null && Arrays.equals(view, shown))
+			return;
+		release(view);
+	}
+
+	private void release(int view[])
+	{
+		if (!spectators.isEmpty())
+		{
+			Connection.Frame f = new Connection.Frame();
+			f.begin();
+			writeDelta(f, shown, view);
+			sendSpectators(frame(f));
 		}
+		shown = view;
+	}
+
+	private void sendSpectators(byte[] frame)
+	{
+		for (Spectator s : spectators)
+			s.conn.sendShared(frame);
+	}
+
+	// a DELTA from one view to another (everything if from is null)
+	private void writeDelta(Connection.Frame f, int from[], int to[])
+	{
+		int squares = 0,
+			slots = 0;
+		for (int s=0;s<SQUARES+SLOTS;s++)
+		{
+			if (from != null && from[2*s] == to[2*s] && from[2*s+1] == to[2*s+1])
+				continue;
+			if (s < SQUARES)
+				squares++;
+			else
+				slots++;
+		}
+
+		f.writeInt(Message.DELTA.ordinal());
+		f.writeVarint(squares);
+		for (int s=0;s<SQUARES+SLOTS;s++)
+		{
+			if (s == SQUARES)
+				f.writeVarint(slots);
+			if (from != null && from[2*s] == to[2*s] && from[2*s+1] == to[2*s+1])
+				continue;
+			f.writeVarint(s < SQUARES ? s : s - SQUARES);
+			f.writeVarint(to[2*s] + 1);
+			f.writeVarint(to[2*s+1]);
+		}
+	}
+
+	private static byte[] frame(Connection.Frame f)
+	{
+		return Arrays.copyOf(f.array(), f.end());
+	}
+
+	// a record in the server log
+	void log(String s)
+	{
+		Log.event("game " + id + " " + s);
 	}
 	
 	public String status()
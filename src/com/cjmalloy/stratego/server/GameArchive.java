@@ -0,0 +1,255 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Every game the server plays, for analysis and training.
+//
+// When a game ends its GameRecord is queued, and the archive thread
+// appends it to DATA and an entry for it to INDEX, so the game
+// threads never wait on the disk.  The files are only appended to:
+//
+//   INDEX  16 bytes a game: int id, long offset, int length
+//   DATA   the records (see GameRecord), one after another
+//
+// The record is written before its entry, so a crash leaves at most
+// an unindexed record, which is never read.  A Reader loads the
+// index and reads any record by game id.
+
+public class GameArchive extends Thread
+{
+	public static final String DATA = "stratego_server04_games.dat";
+	public static final String INDEX = "stratego_server04_games.idx";
+	private static final int ENTRY = 16;
+	private static final long WRITE_INTERVAL = 1000;	// ms
+
+	public static class Reader
+	{
+		private RandomAccessFile data = null;
+		private int ids[];
+		private long offsets[];
+		private int lengths[];
+		private HashMap<Integer, Integer> entries = new HashMap<Integer, Integer>();
+
+		public Reader() throws IOException
+		{
+			this(new File(DATA), new File(INDEX));
+		}
+
+		public Reader(File d, File i) throws IOException
+		{
+			RandomAccessFile index = new RandomAccessFile(i, "r");
+			try
+			{
+				byte[] bs = new byte[(int)(index.length() / ENTRY * ENTRY)];
+				index.readFully(bs);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(bs));
+				int n = bs.length / ENTRY;
+				ids = new int[n];
+				offsets = new long[n];
+				lengths = new int[n];
+				for (int j=0;j<n;j++)
+				{
+					ids[j] = in.readInt();
+					offsets[j] = in.readLong();
+					lengths[j] = in.readInt();
+					entries.put(ids[j], j);
+				}
+			}
+			finally
+			{
+				index.close();
+			}
+			data = new RandomAccessFile(d, "r");
+		}
+
+		// games in the order they ended
+		public int size()
+		{
+			return ids.length;
+		}
+
+		public int id(int i)
+		{
+			return ids[i];
+		}
+
+		// the game with the id, or null
+		public GameRecord get(int id) throws IOException
+		{
+			Integer i = entries.get(id);
+			if (i == null)
+				return null;
+			return read(i);
+		}
+
+		public synchronized GameRecord read(int i) throws IOException
+		{
+			byte[] bs = new byte[lengths[i]];
+			data.seek(offsets[i]);
+			data.readFully(bs);
+			return new GameRecord(new DataInputStream(new ByteArrayInputStream(bs)));
+		}
+
+		public void close() throws IOException
+		{
+			data.close();
+		}
+	}
+
+	private static class Entry
+	{
+		int id;
+		byte[] record;
+	}
+
+	private static ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+	private static GameArchive me = null;
+
+	private FileOutputStream data = null;
+	private FileOutputStream index = null;
+	private long offset = 0;
+
+	private GameArchive()
+	{
+		super("GameArchive");
+		setDaemon(true);
+	}
+
+	// the last game id in the archive, 0 if none, and
+	// starts the archive thread
+	public static synchronized int open()
+	{
+		int last = 0;
+		File f = new File(INDEX);
+		if (f.exists())
+		{
+			try
+			{
+				Reader r = new Reader();
+				for (int i=0;i<r.size();i++)
+					last = Math.max(last, r.id(i));
+				r.close();
+			}
+			catch (IOException e)
+			{
+				Log.println("GameArchive: " + e);
+			}
+		}
+
+		if (me == null)
+		{
+			me = new GameArchive();
+			Runtime.getRuntime().addShutdownHook(new Thread()
+			{
+				public void run()
+				{
+					me.drain();
+				}
+			});
+			me.start();
+		}
+		return last;
+	}
+
+	public static void add(GameRecord g)
+	{
+		Entry e = new Entry();
+		e.id = g.id;
+		e.record = g.toBytes();
+		queue.add(e);
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			LockSupport.parkNanos(WRITE_INTERVAL * 1000000L);
+			drain();
+		}
+	}
+
+	private synchronized void drain()
+	{
+		if (queue.isEmpty())
+			return;
+
+		try
+		{
+			if (data == null)
+			{
+				File d = new File(DATA);
+				offset = d.length();
+				data = new FileOutputStream(d, true);
+				index = new FileOutputStream(INDEX, true);
+			}
+
+			// the records of the batch, then their entries
+			Entry e;
+			byte[] entries = new byte[ENTRY * queue.size() + ENTRY];
+			int n = 0;
+			while ((e = queue.poll()) != null)
+			{
+				data.write(e.record);
+				if (n + ENTRY > entries.length)
+				{
+					index.write(entries, 0, n);
+					n = 0;
+				}
+				putInt(entries, n, e.id);
+				putInt(entries, n + 4, (int)(offset >>> 32));
+				putInt(entries, n + 8, (int)offset);
+				putInt(entries, n + 12, e.record.length);
+				n += ENTRY;
+				offset += e.record.length;
+			}
+			data.flush();
+			index.write(entries, 0, n);
+			index.flush();
+		}
+		catch (IOException ex)
+		{
+			Log.println("GameArchive: " + ex);
+			queue.clear();
+			try
+			{
+				data.close();
+				index.close();
+			}
+			catch (Exception ex2) {}
+			data = null;
+		}
+	}
+
+	private static void putInt(byte[] bs, int i, int v)
+	{
+		bs[i] = (byte)(v >>> 24);
+		bs[i+1] = (byte)(v >>> 16);
+		bs[i+2] = (byte)(v >>> 8);
+		bs[i+3] = (byte)v;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.cjmalloy.stratego.Board;
+import com.cjmalloy.stratego.Piece;
+
+// What happened in a game, for GameArchive.
+//
+// The game adds to its record as it goes, with the game locked,
+// and the archive writes it when the game ends.  A record is:
+//
+//   byte version, int id, long start, long end (ms),
+//   UTF player 0 alias, UTF player 1 alias,
+//   byte winner (-1 if nobody won), byte 1 if set up,
+//   20 bytes per side of setup, a rank ordinal per nibble,
+//     for x, then y of rows 0-3 (color 0) and 6-9 (color 1),
+//   varint event count, a varint per event.
+//
+// An event is a value and a type in the low two bits:
+//   MOVE    Move.packMove() of the move,
+//   REVEAL  attacker rank << 4 | defender rank, after a MOVE
+//           that attacked,
+//   RESIGN  the color that resigned.
+
+public class GameRecord
+{
+	public static final int VERSION = 1;
+	public static final int MOVE = 0;
+	public static final int REVEAL = 1;
+	public static final int RESIGN = 2;
+
+	public int id;
+	public long start = 0;
+	public long end = 0;
+	public String alias[] = new String[2];
+	public int winner = -1;
+	public boolean setup = false;
+	public int ranks[][] = new int[2][40];	// Rank ordinals
+	private int events[] = new int[64];
+	private int count = 0;
+
+	public GameRecord(int i, String a, String b)
+	{
+		id = i;
+		alias[0] = a;
+		alias[1] = b;
+	}
+
+	public GameRecord(DataInput in) throws IOException
+	{
+		int v = in.readByte();
+		if (v != VERSION)
+			throw new IOException("Unknown game record version " + v);
+		id = in.readInt();
+		start = in.readLong();
+		end = in.readLong();
+		alias[0] = in.readUTF();
+		alias[1] = in.readUTF();
+		winner = in.readByte();
+		setup = in.readByte() != 0;
+		for (int c=0;c<2;c++)
+		for (int i=0;i<40;i+=2)
+		{
+			int b = in.readByte() & 0xff;
+			ranks[c][i] = b >> 4;
+			ranks[c][i+1] = b & 0xf;
+		}
+		count = readVarint(in);
+		events = new int[Math.max(1, count)];
+		for (int i=0;i<count;i++)
+			events[i] = readVarint(in);
+	}
+
+	public static int type(int e)
+	{
+		return e & 3;
+	}
+
+	public static int value(int e)
+	{
+		return e >>> 2;
+	}
+
+	public synchronized int size()
+	{
+		return count;
+	}
+
+	public synchronized int event(int i)
+	{
+		return events[i];
+	}
+
+	public synchronized void start()
+	{
+		start = System.currentTimeMillis();
+	}
+
+	// the board once both sides are set up
+	public synchronized void setup(Board b)
+	{
+		for (int c=0;c<2;c++)
+		for (int i=0;i<40;i++)
+		{
+			Piece p = b.getPiece(i % 10, (c == 0 ? 0 : 6) + i / 10);
+			ranks[c][i] = p == null ? 0 : p.getActualRank().ordinal();
+		}
+		setup = true;
+	}
+
+	// defender is -1 if the square was empty
+	public synchronized void move(int m, int attacker, int defender)
+	{
+		add(m, MOVE);
+		if (defender >= 0)
+			add((attacker << 4) | defender, REVEAL);
+	}
+
+	public synchronized void resign(int color)
+	{
+		add(color, RESIGN);
+	}
+
+	public synchronized void gameOver(int c)
+	{
+		winner = c;
+	}
+
+	private void add(int v, int type)
+	{
+		if (count == events.length)
+		{
+			int e[] = new int[count * 2];
+			System.arraycopy(events, 0, e, 0, count);
+			events = e;
+		}
+		events[count++] = (v << 2) | type;
+	}
+
+	public synchronized byte[] toBytes()
+	{
+		if (end == 0)
+			end = System.currentTimeMillis();
+		ByteArrayOutputStream bs = new ByteArrayOutputStream(128 + 3 * count);
+		DataOutputStream out = new DataOutputStream(bs);
+		try
+		{
+			out.writeByte(VERSION);
+			out.writeInt(id);
+			out.writeLong(start);
+			out.writeLong(end);
+			out.writeUTF(alias[0]);
+			out.writeUTF(alias[1]);
+			out.writeByte(winner);
+			out.writeByte(setup ? 1 : 0);
+			for (int c=0;c<2;c++)
+			for (int i=0;i<40;i+=2)
+				out.writeByte((ranks[c][i] << 4) | ranks[c][i+1]);
+			writeVarint(out, count);
+			for (int i=0;i<count;i++)
+				writeVarint(out, events[i]);
+		}
+		catch (IOException e)
+		{
+			// not from a ByteArrayOutputStream
+		}
+		return bs.toByteArray();
+	}
+
+	private static void writeVarint(DataOutputStream out, int v) throws IOException
+	{
+		while ((v & ~0x7f) != 0)
+		{
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static int readVarint(DataInput in) throws IOException
+	{
+		int v = 0;
+		for (int shift=0;;shift+=7)
+		{
+			int b = in.readByte();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+	}
+}
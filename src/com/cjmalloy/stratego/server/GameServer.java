@@ -18,130 +18,202 @@
 package com.cjmalloy.stratego.server;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.cjmalloy.stratego.server.shared.Message;
 
+// Games are looked up by player and users by alias in concurrent
+// maps, instead of scanning lists under the server monitor, so
+// starting and ending a game costs the same with 10 users or 10000.
+//
+// The idle connections (Server.connections) are also the claim on a
+// player: whoever removes a connection from it gets to start its game.
+// Idle players wait in a queue for any opponent, longest first.
+// Entries are not removed when a player leaves the queue some other
+// way (a game by name, a disconnect); each time a player becomes idle
+// it gets a new ticket, and old tickets are dropped when they come up.
+
 public class GameServer extends Server
 {
-	private ArrayList<Game> games = new ArrayList<Game>();
-	private boolean closing = false;
-	private GameServer me = null;
-	private boolean userListChanged = false;
-	private Thread sendUserList = new Thread()
+	private static class Ticket
 	{
-		public void run()
-		{
-			while (!closing)
-			{
-				try
-				{
-					sleep(2000);
-					synchronized (sendUserList)
-					{
-						if (!userListChanged)  wait();
-					}
-				}
-				catch (InterruptedException e) {}
-				userListChanged = false;
-
-				String s = "u " + (connections.size() + 2*games.size());
-				for (ServerConnection c: connections)
-					s += " " + Message.IDLE_PREFIX + c.alias;
-
-				for (Game g: games)
-					s += " " + Message.GAME_PREFIX + g.player[0].alias
-					   + " " + Message.GAME_PREFIX + g.player[1].alias;
+		ServerConnection conn;
 
-				synchronized (me)
-				{
-					for (ServerConnection c: connections)
-					{
-						c.startSending();
-						try
-						{
-							c.cmd(s);
-						}
-						finally
-						{
-							c.stopSending();
-						}
-					}
-	
-					for (int i=0;i<2;i++)
-					for (Game g: games)
-					{
-						g.player[i].startSending();
-						try
-						{
-							g.player[i].cmd(s);
-						}
-						finally
-						{
-							g.player[i].stopSending();
-						}
-					}
-				}
-			}
+		Ticket(ServerConnection c)
+		{
+			conn = c;
 		}
-	};
+	}
+
+	private ConcurrentHashMap<ServerConnection, Game> games = new ConcurrentHashMap<ServerConnection, Game>();
+	private Set<Game> active = Collections.newSetFromMap(new ConcurrentHashMap<Game, Boolean>());
+	private ConcurrentHashMap<ServerConnection, Game> watching = new ConcurrentHashMap<ServerConnection, Game>();
+	private ConcurrentHashMap<String, ServerConnection> aliases = new ConcurrentHashMap<String, ServerConnection>();
+	private ConcurrentHashMap<ServerConnection, Ticket> tickets = new ConcurrentHashMap<ServerConnection, Ticket>();
+	private ConcurrentLinkedQueue<Ticket> waiting = new ConcurrentLinkedQueue<Ticket>();
+	private boolean closing = false;
+	private Presence presence = new Presence();
+	// Stands for the AIPool in the lobby.  It is never idle in
+	// connections, so only asking for it by name starts a game.
+	private AISeat computer = new AISeat();
 	
 	public GameServer(ServerController sc, int p)
 	{
 		super(sc, p);
 		
-		me = this;
 		closing = false;
-		sendUserList.start();
+		Game.skipIds(GameArchive.open());
+		aliases.put(computer.alias, computer);
+		presence.add(computer, Message.IDLE_PREFIX);
+		presence.start();
 	}
 	
-	public synchronized boolean newGame(ServerConnection c, ArrayList<String> users)
+	public boolean newGame(ServerConnection c, ArrayList<String> users)
 	{
-		for (int i=0;i<connections.size();i++)
+		// claim c, it may not be in two games
+		if (!connections.remove(c))
+			return false;
+
+		ServerConnection o = null;
+		if (users == null)
 		{
-			if (!connections.get(i).ignore &&
-				 connections.get(i) != c)
+			o = match(c);
+		}
+		else
+		{
+			for (String s: users)
 			{
-				if (users == null)
+				o = aliases.get(s);
+				if (o == computer)
 				{
-					startGame(c, connections.get(i));
-					return true;
-				}
-				else
-				{
-					for (String s: users)
-						if (connections.get(i).alias.equals(s))
-						{
-							startGame(c, connections.get(i));
-							return true;
-						}
+					o = AIPool.seat();
+					if (o != null)
+						break;
+					continue;
 				}
+				if (o != null && o != c && !o.ignore && connections.remove(o))
+					break;
+				o = null;
+			}
+		}
+
+		if (o == null)
+		{
+			idle(c);
+			return false;
+		}
+		startGame(c, o);
+		return true;
+	}
+
+	// claims the player waiting longest, other than c
+	private ServerConnection match(ServerConnection c)
+	{
+		ArrayList<Ticket> ignoring = new ArrayList<Ticket>();
+		ServerConnection o = null;
+		Ticket t;
+		while ((t = waiting.poll()) != null)
+		{
+			if (t.conn == c || tickets.get(t.conn) != t ||
+				!connections.contains(t.conn))
+				continue;
+			if (t.conn.ignore)
+			{
+				ignoring.add(t);
+				continue;
+			}
+			if (connections.remove(t.conn))
+			{
+				o = t.conn;
+				break;
 			}
 		}
-		return false;
+		// still idle, they may stop ignoring
+		waiting.addAll(ignoring);
+		return o;
+	}
+
+	// makes a claimed player idle again
+	private void idle(ServerConnection c)
+	{
+		connections.add(c);
+		queue(c);
+	}
+
+	private void queue(ServerConnection c)
+	{
+		Ticket t = new Ticket(c);
+		tickets.put(c, t);
+		waiting.add(t);
 	}
 	
-	private synchronized void startGame(ServerConnection a, ServerConnection b)
+	private void startGame(ServerConnection a, ServerConnection b)
 	{
-		Game g = new Game(this, a, b);
-		games.add(g);
-		connections.remove(a);
-		connections.remove(b);
+		// the computer plays the top color
+		Game g = (b instanceof AISeat) ? new Game(this, b, a) : new Game(this, a, b);
+		active.add(g);
+		Metrics.gamesStarted.incrementAndGet();
+		games.put(a, g);
+		games.put(b, g);
 		g.start();
-		sendUserList();
+		for (int i=0;i<2;i++)
+			if (!(g.player[i] instanceof AISeat))
+				presence.set(g.player[i], Message.GAME_PREFIX);
 	}
 
-	public synchronized void stopGame(ServerConnection u)
+	// c watches the game user is playing, if c is idle
+	public boolean watch(ServerConnection c, String user)
 	{
-		for (Game g: games)
+		ServerConnection p = aliases.get(user);
+		Game g = p == null ? null : games.get(p);
+		if (g == null || c.minorVersion < Message.DELTA_MINOR_VERSION)
+			return false;
+		if (!connections.remove(c))
+			return false;
+
+		watching.put(c, g);
+		g.watch(c);
+		// the game may have ended meanwhile
+		if (!active.contains(g))
 		{
-			if (g.player[0] == u || g.player[1] == u)
-			{
-				stopGame(g);
-				return;
-			}
+			unwatch(c);
+			return false;
+		}
+		presence.set(c, Message.GAME_PREFIX);
+		return true;
+	}
+
+	public void unwatch(ServerConnection c)
+	{
+		Game g = watching.remove(c);
+		if (g == null)
+			return;
+		g.unwatch(c);
+		if (c.connected())
+		{
+			idle(c);
+			presence.set(c, Message.IDLE_PREFIX);
+		}
+		else
+		{
+			Log.event("leave " + c.alias);
+			aliases.remove(c.alias, c);
+			tickets.remove(c);
+			presence.remove(c);
 		}
 	}
-	public synchronized void stopGame(Game g)
+
+	public void stopGame(ServerConnection u)
+	{
+		unwatch(u);
+		Game g = games.get(u);
+		if (g != null)
+			stopGame(g);
+	}
+	public void stopGame(Game g)
 	{
 		for (int i=0;i<2;i++)
 		{
@@ -161,32 +233,63 @@ public class GameServer extends Server
 		g.disc();
 	}
 	
-	public synchronized void gameOver(Game g)
+	public void gameOver(Game g)
 	{
-		games.remove(g);
-		if (g.player[0].connected())
+		// both players may leave, each ends the game
+		if (!active.remove(g))
+			return;
+		g.log("end");
+		GameArchive.add(g.record);
+		Metrics.gamesEnded.incrementAndGet();
+
+		for (int i=0;i<2;i++)
 		{
-			connections.add(g.player[0]);
+			games.remove(g.player[i], g);
+			if (g.player[i] instanceof AISeat)
+				((AISeat)g.player[i]).close();
+			else if (g.player[i].connected())
+			{
+				idle(g.player[i]);
+				presence.set(g.player[i], Message.IDLE_PREFIX);
+			}
+			else
+			{
+				Log.event("leave " + g.player[i].alias);
+				aliases.remove(g.player[i].alias, g.player[i]);
+				tickets.remove(g.player[i]);
+				presence.remove(g.player[i]);
+			}
 		}
-		if (g.player[1].connected())
+		
+		for (ServerConnection c : g.spectators())
 		{
-			connections.add(g.player[1]);
+			if (c.connected())
+			{
+				c.startSending();
+				try
+				{
+					c.writeInt(Message.DISC.ordinal());
+				}
+				finally
+				{
+					c.stopSending();
+				}
+			}
+			unwatch(c);
 		}
 		
-		if (closing && games.size() <= 1)
+		if (closing && active.size() <= 1)
 		{
 			close();
 			System.exit(0);
 		}
-		
-		sendUserList();
 	}
 	
 	public void closeWhenEmpty(boolean b)
 	{
 		closing = b;
 
-		if (closing && (games.size() <= 1))
+		if (closing && (active.size() <= 1))
 		{
 			close();
 			System.exit(0);
@@ -198,63 +301,38 @@ public class GameServer extends Server
 		return closing;
 	}
 	
-	protected synchronized void add(ServerConnection sc)
+	protected void add(ServerConnection sc)
 	{
+		Log.event("join " + sc.alias);
+		aliases.put(sc.alias, sc);
 		super.add(sc);
-		sendUserList();
+		queue(sc);
+		presence.add(sc, Message.IDLE_PREFIX);
 	}
 	
-	public synchronized boolean addAlias(ServerConnection conn, String s)
+	public boolean addAlias(ServerConnection conn, String s)
 	{
-		for (ServerConnection c: connections)
-			if (c.alias.equals(s))
-				return false;
+		if (aliases.putIfAbsent(s, conn) != null)
+			return false;
 
-		for (Game g: games)
-		{
-			if (g.player[0].alias.equals(s))
-				return false;
-			if (g.player[1].alias.equals(s))
-				return false;
-		}
-		
+		aliases.remove(conn.alias, conn);
+		Log.event("alias " + conn.alias + " " + s);
 		conn.alias = s;
-		sendUserList();
+		presence.rename(conn);
 		return true;
 	}
 	
-	public synchronized void sendUserList()
-	{
-		userListChanged = true;
-		synchronized (sendUserList)
-		{
-			sendUserList.notify();
-		}
-	}
-
-	public synchronized boolean isIdle(ServerConnection u)
+	public boolean isIdle(ServerConnection u)
 	{
-		for (ServerConnection c: connections)
-		{
-			if (c == u)
-				return true;
-		}
-		return false;
+		return connections.contains(u);
 	}
 	
-	public synchronized boolean isInGame(ServerConnection u)
+	public boolean isInGame(ServerConnection u)
 	{
-		for (Game g: games)
-		{
-			if (g.player[0] == u)
-				return true;
-			if (g.player[1] == u)
-				return true;
-		}
-		return false;
+		return games.containsKey(u);
 	}
 	
-	public synchronized boolean isIgnoring(String user)
+	public boolean isIgnoring(String user)
 	{
 		if (user == null)
 		{
@@ -266,18 +344,13 @@ public class GameServer extends Server
 			return true;
 		}
 		
-		for (ServerConnection c: connections)
-		{
-			if (c.alias.equals(user))
-			{
-				if (c.ignore)
-					return true;
-				return false;
-			}
-		}
-		return true;
+		ServerConnection c = aliases.get(user);
+		if (c == computer)
+			return !AIPool.available();
+		if (c == null || !connections.contains(c))
+			return true;
+		return c.ignore;
 	}
-	
 	public synchronized void setPort(int p)
 	{
 		if (!isIgnoring())
@@ -295,32 +368,42 @@ public class GameServer extends Server
 	}
 	
 
-	public void bye()
+	protected void removed(ServerConnection sc)
+	{
+		Log.event("leave " + sc.alias);
+		aliases.remove(sc.alias, sc);
+		tickets.remove(sc);
+		presence.remove(sc);
+	}
+	
+	public void close()
 	{
-		super.bye();
-		sendUserList();
+		super.close();
+		presence.close();
 	}
 	
-	public synchronized String games()
+	public String games()
 	{
 		String ret = "";
 
-		for (int i=0;i<games.size();i++)
+		int i = 0;
+		for (Game g: active)
 		{
-			ret += "Game " + (i+1) + "\n";
-			ret += games.get(i).status() + "\n\n";
+			i++;
+			ret += "Game " + i + "\n";
+			ret += g.status() + "\n\n";
 		}
 
 		return ret;
 	}
 	
-	public synchronized String idle()
+	public String idle()
 	{
 		return connections.size() + " idle players";
 	}
 	
 	public String status()
 	{
-		return games.size() + " games active";
+		return active.size() + " games active";
 	}
 }
@@ -16,34 +16,186 @@
 */
 package com.cjmalloy.stratego.server;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
-public class Log
+// The server log.
+//
+// Every line used to be printed and flushed to the file by the
+// thread that logged it, so under load the game and connection
+// threads queued on the disk.  Now they only add the line to a
+// lock free queue, and the log thread writes what has queued up
+// every FLUSH_INTERVAL in one flush.  If the disk cannot keep up,
+// lines beyond MAX_PENDING are dropped and counted, rather than
+// holding up the server.
+//
+// The file is rotated when it reaches MAX_SIZE or MAX_AGE, and
+// when the server starts: stratego_server04_log.txt becomes
+// stratego_server04_log.txt.1 and so on up to KEEP files.
+//
+// event() records are one line each, with a time stamp, such as
+//   2024-01-31 12:00:00.000 game 12 start alice bob
+
+public class Log extends Thread
 {
-	private PrintStream log = null;
-	private static Log me = new Log("stratego_server04_log.txt");
-	
-	private Log(String fn)
+	private static class Entry
 	{
-		try {
-			log = new PrintStream(new File(fn));
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		long time;	// 0 for plain text
+		String text;
+
+		Entry(long t, String s)
+		{
+			time = t;
+			text = s;
 		}
 	}
 
+	private static final String FILE = "stratego_server04_log.txt";
+	private static final long MAX_SIZE = 16 << 20;	// chars
+	private static final long MAX_AGE = 24 * 3600000L;	// ms
+	private static final int KEEP = 9;
+	private static final long FLUSH_INTERVAL = 200;	// ms
+	private static final int MAX_PENDING = 100000;	// lines
+
+	private static ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+	private static AtomicInteger pending = new AtomicInteger();
+	private static AtomicInteger dropped = new AtomicInteger();
+	private static Log me = new Log();
+
+	private File file = new File(FILE);
+	private Writer out = null;
+	private long size = 0;
+	private long opened = 0;
+	private boolean lineStart = true;
+	private SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	private Date date = new Date();
+
+	private Log()
+	{
+		super("Log");
+		setDaemon(true);
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			public void run()
+			{
+				me.drain();
+			}
+		});
+		start();
+	}
+
 	public static void print(String s)
 	{
-		me.log.print(s);
-		me.log.flush();
+		add(new Entry(0, s));
 	}
 	
 	public static void println(String s)
 	{
-		me.log.println(s);
-		me.log.flush();
+		add(new Entry(0, s + "\n"));
+	}
+
+	// a time stamped record
+	public static void event(String s)
+	{
+		add(new Entry(System.currentTimeMillis(), s));
+	}
+
+	private static void add(Entry e)
+	{
+		if (pending.incrementAndGet() > MAX_PENDING)
+		{
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		queue.add(e);
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			LockSupport.parkNanos(FLUSH_INTERVAL * 1000000L);
+			drain();
+		}
+	}
+
+	private synchronized void drain()
+	{
+		if (queue.isEmpty() && dropped.get() == 0)
+			return;
+
+		try
+		{
+			if (out == null)
+				rotate();
+
+			Entry e;
+			while ((e = queue.poll()) != null)
+			{
+				pending.decrementAndGet();
+				// rotate between lines
+				if (lineStart && (size >= MAX_SIZE
+					|| System.currentTimeMillis() - opened >= MAX_AGE))
+					rotate();
+				if (e.time != 0)
+				{
+					date.setTime(e.time);
+					write(format.format(date));
+					write(" ");
+					write(e.text);
+					write("\n");
+				}
+				else
+					write(e.text);
+			}
+
+			int d = dropped.getAndSet(0);
+			if (d != 0)
+				write(d + " log lines dropped.\n");
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			// the server goes on without its log
+			e.printStackTrace();
+			queue.clear();
+			pending.set(0);
+			out = null;
+		}
+	}
+
+	private void write(String s) throws IOException
+	{
+		out.write(s);
+		size += s.length();
+		lineStart = s.endsWith("\n");
+	}
+
+	private void rotate() throws IOException
+	{
+		if (out != null)
+			out.close();
+
+		if (file.length() > 0)
+		{
+			new File(FILE + "." + KEEP).delete();
+			for (int i=KEEP-1;i>0;i--)
+				new File(FILE + "." + i).renameTo(new File(FILE + "." + (i+1)));
+			file.renameTo(new File(FILE + ".1"));
+		}
+
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 65536);
+		size = 0;
+		opened = System.currentTimeMillis();
 	}
 }
@@ -0,0 +1,236 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.cjmalloy.stratego.server.shared.Message;
+
+// Live counters for the server.
+//
+// The threads that do the work only bump atomic counters, so
+// counting costs about as much as a volatile write.  The counters
+// are read by text(), which the m command of a controller (local
+// or remote) prints, and which is written to FILE every
+// FILE_INTERVAL for a scraper.  The text is in the Prometheus
+// exposition format, one "name{labels} value" per line.
+//
+// Messages in are counted by type.  Messages out are counted by
+// packet, under the type of the first message of the packet, since
+// a packet such as a full board update holds hundreds of them.
+
+public class Metrics extends Thread
+{
+	// Times in microseconds, in power of 2 buckets, so recording
+	// is lock free and the quantiles are within a factor of 2.
+	public static class Histogram
+	{
+		private static final int BUCKETS = 40;
+
+		private String name;
+		private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private AtomicLong sum = new AtomicLong();
+		private AtomicLong max = new AtomicLong();
+
+		Histogram(String n)
+		{
+			name = n;
+		}
+
+		public void record(long nanos)
+		{
+			long us = Math.max(0, nanos / 1000);
+			int b = Math.min(BUCKETS-1, 64 - Long.numberOfLeadingZeros(us));
+			counts.incrementAndGet(b);
+			sum.addAndGet(us);
+			long m;
+			while (us > (m = max.get()) && !max.compareAndSet(m, us));
+		}
+
+		// the upper bound of the bucket holding quantile q
+		private long quantile(long[] c, long total, double q)
+		{
+			long rank = (long)Math.ceil(q * total),
+				n = 0;
+			for (int b=0;b<BUCKETS;b++)
+			{
+				n += c[b];
+				if (n >= rank)
+					return Math.min((1L << b) - 1, max.get());
+			}
+			return max.get();
+		}
+
+		void text(StringBuilder s)
+		{
+			long c[] = new long[BUCKETS],
+				total = 0;
+			for (int b=0;b<BUCKETS;b++)
+			{
+				c[b] = counts.get(b);
+				total += c[b];
+			}
+			double q[] = { 0.5, 0.9, 0.99 };
+			for (int i=0;i<q.length;i++)
+				line(s, name + "{quantile=\"" + q[i] + "\"}",
+					total == 0 ? 0 : quantile(c, total, q[i]));
+			line(s, name + "_max", max.get());
+			line(s, name + "_sum", sum.get());
+			line(s, name + "_count", total);
+		}
+	}
+
+	private static final String FILE = "stratego_server04_metrics.txt";
+	private static final long FILE_INTERVAL = 10000;	// ms
+	private static final int TYPES = Message.values().length;
+
+	public static final AtomicInteger connections = new AtomicInteger();
+	public static final AtomicLong accepted = new AtomicLong();
+	public static final AtomicLong handshakes = new AtomicLong();
+	public static final AtomicLong gamesStarted = new AtomicLong();
+	public static final AtomicLong gamesEnded = new AtomicLong();
+	public static final AtomicLong packetsIn = new AtomicLong();
+	public static final AtomicLong bytesIn = new AtomicLong();
+	private static final AtomicLongArray messagesIn = new AtomicLongArray(TYPES);
+	private static final AtomicLongArray typeBytesIn = new AtomicLongArray(TYPES);
+	private static final AtomicLongArray packetsOut = new AtomicLongArray(TYPES);
+	private static final AtomicLongArray typeBytesOut = new AtomicLongArray(TYPES);
+	public static final Histogram handshake = new Histogram("stratego_handshake_us");
+	public static final Histogram moveRelay = new Histogram("stratego_move_relay_us");
+
+	private static Metrics writer = null;
+	private static long started = System.currentTimeMillis();
+
+	private Metrics()
+	{
+		super("Metrics");
+		setDaemon(true);
+	}
+
+	// writes FILE every FILE_INTERVAL from now on
+	public static synchronized void startFile()
+	{
+		if (writer != null)
+			return;
+		writer = new Metrics();
+		writer.start();
+	}
+
+	// a message of the type and size (bytes) was received
+	public static void received(int type, int len)
+	{
+		if (type < 0 || type >= TYPES)
+			return;
+		messagesIn.incrementAndGet(type);
+		typeBytesIn.addAndGet(type, len);
+	}
+
+	// a packet (len bytes with the length) was sent
+	public static void sent(byte[] bs, int len)
+	{
+		int type = -1;
+		if (len >= 8)
+			type = ((bs[4] & 0xff) << 24) | ((bs[5] & 0xff) << 16)
+				| ((bs[6] & 0xff) << 8) | (bs[7] & 0xff);
+		if (type < 0 || type >= TYPES)
+			return;
+		packetsOut.incrementAndGet(type);
+		typeBytesOut.addAndGet(type, len);
+	}
+
+	private static void line(StringBuilder s, String name, long v)
+	{
+		s.append(name).append(' ').append(v).append('\n');
+	}
+
+	public static String text()
+	{
+		StringBuilder s = new StringBuilder();
+		line(s, "stratego_uptime_seconds", (System.currentTimeMillis() - started) / 1000);
+		line(s, "stratego_connections", connections.get());
+		line(s, "stratego_accepted_total", accepted.get());
+		line(s, "stratego_handshakes_total", handshakes.get());
+		line(s, "stratego_games", gamesStarted.get() - gamesEnded.get());
+		line(s, "stratego_games_total", gamesStarted.get());
+		line(s, "stratego_ai_seats", AIPool.seats());
+		line(s, "stratego_ai_searches", AIPool.load());
+		line(s, "stratego_packets_in_total", packetsIn.get());
+		line(s, "stratego_bytes_in_total", bytesIn.get());
+		for (int t=0;t<TYPES;t++)
+		{
+			String type = "{type=\"" + Message.get(t) + "\"}";
+			line(s, "stratego_messages_in_total" + type, messagesIn.get(t));
+			line(s, "stratego_message_bytes_in_total" + type, typeBytesIn.get(t));
+			line(s, "stratego_packets_out_total" + type, packetsOut.get(t));
+			line(s, "stratego_packet_bytes_out_total" + type, typeBytesOut.get(t));
+		}
+		handshake.text(s);
+		moveRelay.text(s);
+		return s.toString();
+	}
+
+	public void run()
+	{
+		File file = new File(FILE),
+			tmp = new File(FILE + ".tmp");
+		while (true)
+		{
+			try
+			{
+				sleep(FILE_INTERVAL);
+			}
+			catch (InterruptedException e) {}
+
+			// a scraper never sees half a file
+			Writer out = null;
+			try
+			{
+				out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+				out.write(text());
+				out.close();
+				out = null;
+				if (!tmp.renameTo(file))
+				{
+					file.delete();
+					tmp.renameTo(file);
+				}
+			}
+			catch (IOException e)
+			{
+				Log.println("Metrics: " + e);
+			}
+			finally
+			{
+				if (out != null)
+				{
+					try
+					{
+						out.close();
+					} catch (IOException e) {}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cjmalloy.stratego.server.shared.Message;
+
+// The user list of a GameServer, as each client sees it.
+//
+// The server used to rebuild the whole list on every change and send
+// it to everyone while holding its monitor, so each change cost
+// O(N) bytes for each of N users and held up new games meanwhile.
+// Now the server only reports what changed (a user joined, left,
+// started or finished a game, or took a new name) and returns.
+//
+// Changes are gathered for COALESCE ms and coalesced by alias, so
+// a user who starts and finishes a game within a round costs
+// nothing.  The round is then sent by this thread, holding no lock,
+// as one CMD shared by all the clients:
+//
+//	+ <entry>	user added or changed, entry is prefix + alias
+//	- <alias>	user gone
+//
+// A client gets the whole list ("u <n> <entry>...") once, when it
+// connects.  Clients older than PRESENCE_MINOR_VERSION only know the
+// whole list, so they still get it after every round with a change,
+// but it is built once for all of them.
+
+public class Presence extends Thread
+{
+	private static final int COALESCE = 500;	// ms
+
+	private LinkedHashMap<ServerConnection, String> users = new LinkedHashMap<ServerConnection, String>();
+	private LinkedHashMap<String, String> changes = new LinkedHashMap<String, String>();
+	private HashSet<ServerConnection> fresh = new HashSet<ServerConnection>();
+	private boolean running = true;
+
+	public Presence()
+	{
+		super("Presence");
+		setDaemon(true);
+	}
+
+	private static String alias(String entry)
+	{
+		return entry.substring(1);
+	}
+
+	// a new user, who is sent the whole list
+	public synchronized void add(ServerConnection c, char prefix)
+	{
+		set(c, prefix);
+		fresh.add(c);
+	}
+
+	// a user's prefix or alias changed
+	public synchronized void set(ServerConnection c, char prefix)
+	{
+		String entry = prefix + c.alias;
+		String old = users.put(c, entry);
+		if (entry.equals(old))
+			return;
+		if (old != null && !alias(old).equals(c.alias))
+			changes.put(alias(old), null);
+		changes.put(c.alias, entry);
+		notify();
+	}
+
+	// a user took a new alias
+	public synchronized void rename(ServerConnection c)
+	{
+		String old = users.get(c);
+		if (old != null)
+			set(c, old.charAt(0));
+	}
+
+	public synchronized void remove(ServerConnection c)
+	{
+		String old = users.remove(c);
+		fresh.remove(c);
+		if (old == null)
+			return;
+		changes.put(alias(old), null);
+		notify();
+	}
+
+	public synchronized void close()
+	{
+		running = false;
+		notify();
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			synchronized (this)
+			{
+				while (running && changes.isEmpty() && fresh.isEmpty())
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e) {}
+				}
+				if (!running)
+					return;
+			}
+			try
+			{
+				sleep(COALESCE);
+			}
+			catch (InterruptedException e) {}
+			flush();
+		}
+	}
+
+	private void flush()
+	{
+		String events = null,
+			list = null;
+		ArrayList<ServerConnection> current = new ArrayList<ServerConnection>(),
+			whole = new ArrayList<ServerConnection>();
+
+		synchronized (this)
+		{
+			if (!changes.isEmpty())
+			{
+				StringBuilder sb = new StringBuilder();
+				for (Map.Entry<String, String> e : changes.entrySet())
+				{
+					if (sb.length() > 0)
+						sb.append(' ');
+					if (e.getValue() == null)
+						sb.append("- ").append(e.getKey());
+					else
+						sb.append("+ ").append(e.getValue());
+				}
+				events = sb.toString();
+				changes.clear();
+			}
+
+			for (ServerConnection c : users.keySet())
+			{
+				if (fresh.contains(c) ||
+					c.minorVersion < Message.PRESENCE_MINOR_VERSION)
+				{
+					if (events != null || fresh.contains(c))
+						whole.add(c);
+				}
+				else if (events != null)
+					current.add(c);
+			}
+			fresh.clear();
+
+			if (!whole.isEmpty())
+			{
+				StringBuilder sb = new StringBuilder("u ").append(users.size());
+				for (String entry : users.values())
+					sb.append(' ').append(entry);
+				list = sb.toString();
+			}
+		}
+
+		for (ServerConnection c : whole)
+			send(c, list);
+		for (ServerConnection c : current)
+			send(c, events);
+	}
+
+	private void send(ServerConnection c, String s)
+	{
+		if (!c.connected())
+			return;
+		c.startSending();
+		try
+		{
+			c.cmd(s);
+		}
+		finally
+		{
+			c.stopSending();
+		}
+	}
+}
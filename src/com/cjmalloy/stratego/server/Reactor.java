@@ -0,0 +1,194 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+// A selector thread.
+//
+// The server used to block a thread on every socket, so every idle
+// lobby connection cost a thread and the accept loop stalled on each
+// handshake.  Now a small pool of reactors serves all the sockets.
+// Each reactor waits on its selector and calls the Handler attached
+// to each ready key.  Handlers must not block, because every other
+// connection of the reactor waits on them.
+//
+// Other threads change a reactor only through execute(), which runs
+// the task on the reactor thread, so selector keys are never
+// touched by two threads at once.
+
+public class Reactor extends Thread
+{
+	public interface Handler
+	{
+		public void ready(SelectionKey key) throws IOException;
+	}
+
+	private static class Timer implements Comparable<Timer>
+	{
+		long time;
+		Runnable task;
+
+		public int compareTo(Timer t)
+		{
+			return time < t.time ? -1 : (time > t.time ? 1 : 0);
+		}
+	}
+
+	private static final int POOL_SIZE = Math.max(1,
+		Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static Reactor pool[] = null;
+	private static int next = 0;
+
+	private Selector selector = null;
+	private ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+	private PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+	private Reactor(int i) throws IOException
+	{
+		super("Reactor " + i);
+		selector = Selector.open();
+	}
+
+	// Returns the reactors in turn, so that the connections
+	// are spread evenly over the pool.
+	public static synchronized Reactor next() throws IOException
+	{
+		if (pool == null)
+		{
+			pool = new Reactor[POOL_SIZE];
+			for (int i=0;i<POOL_SIZE;i++)
+			{
+				pool[i] = new Reactor(i);
+				pool[i].start();
+			}
+		}
+		next = (next + 1) % POOL_SIZE;
+		return pool[next];
+	}
+
+	public Selector selector()
+	{
+		return selector;
+	}
+
+	public void execute(Runnable r)
+	{
+		synchronized (tasks)
+		{
+			tasks.add(r);
+		}
+		selector.wakeup();
+	}
+
+	// Runs the task on the reactor thread after the delay (ms)
+	public void schedule(Runnable r, long delay)
+	{
+		Timer t = new Timer();
+		t.time = System.currentTimeMillis() + delay;
+		t.task = r;
+		synchronized (tasks)
+		{
+			timers.add(t);
+		}
+		selector.wakeup();
+	}
+
+	public void run()
+	{
+		ArrayList<Runnable> ready = new ArrayList<Runnable>();
+		while (true)
+		{
+			try
+			{
+				long timeout = 0;
+				synchronized (tasks)
+				{
+					if (!tasks.isEmpty())
+						timeout = -1;
+					else if (!timers.isEmpty())
+						timeout = Math.max(1, timers.peek().time - System.currentTimeMillis());
+				}
+				if (timeout < 0)
+					selector.selectNow();
+				else
+					selector.select(timeout);
+
+				long now = System.currentTimeMillis();
+				synchronized (tasks)
+				{
+					ready.addAll(tasks);
+					tasks.clear();
+					while (!timers.isEmpty() && timers.peek().time <= now)
+						ready.add(timers.poll().task);
+				}
+				for (Runnable r : ready)
+				{
+					try
+					{
+						r.run();
+					}
+					catch (RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+				}
+				ready.clear();
+
+				for (SelectionKey key : selector.selectedKeys())
+				{
+					try
+					{
+						if (key.isValid())
+							((Handler)key.attachment()).ready(key);
+					}
+					catch (IOException e)
+					{
+						// a listening channel is closed only by its
+						// server, whatever one of its clients did
+						if (key.channel() instanceof ServerSocketChannel)
+						{
+							e.printStackTrace();
+							continue;
+						}
+						key.cancel();
+						try
+						{
+							key.channel().close();
+						} catch (IOException e2) {}
+					}
+					catch (RuntimeException e)
+					{
+						// a bad connection must not stop the others
+						e.printStackTrace();
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -19,62 +19,42 @@ package com.cjmalloy.stratego.server;
 
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cjmalloy.stratego.server.shared.MessageHandler;
 
 
-public abstract class Server implements MessageHandler
+public abstract class Server implements Reactor.Handler
 {
-	protected ArrayList<ServerConnection> connections = new ArrayList<ServerConnection>();
+	protected Set<ServerConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<ServerConnection, Boolean>());
 	protected static ArrayList<Integer> serverIDs = new ArrayList<Integer>();
-	private Semaphore ignore = new Semaphore(1);
+	private boolean ignoring = false;
 	protected ServerController owner = null;
-	protected ServerConnection connecting = null;
 	protected boolean running;
 	protected String password = "";
 	protected int privilege = 5;
 	protected int port;
-	private ServerSocket srv = null;
-	
-	protected Thread main = new Thread()
+	private ServerSocketChannel srv = null;
+	private Reactor acceptor = null;	// the reactor of srv
+	private SelectionKey acceptKey = null;
+
+	private static final int ACCEPT_RETRY = 1000;	// ms
+
+	// made up front: with no file descriptors left,
+	// its class could not be loaded when it is needed
+	private Runnable resumeAccept = new Runnable()
 	{
 		public void run()
 		{
-			while(running)
-			{
-				try
-				{
-					ignore.acquireUninterruptibly();
-					if (!running) break;
-					ignore.release();
-					
-					if (srv == null)
-						srv = new ServerSocket(port);
-					
-					if (connecting == null)
-					{
-						connecting = new ServerConnection();
-					}
-					if (connecting.connect(srv, password))
-					{
-						add(connecting);
-						owner.add(connecting, privilege);
-						connecting = null;
-					}
-				}
-				catch (IOException e)
-				{
-					if (running && !isIgnoring())
-					{
-						owner.println("Port unavailable, please select a different port.");
-						owner.println("Ignoring new connections.");
-						ignore(true);
-					}
-				}
-			}
+			if (acceptKey.isValid())
+				acceptKey.interestOps(SelectionKey.OP_ACCEPT);
 		}
 	};
 	
@@ -84,23 +64,123 @@ public abstract class Server implements MessageHandler
 		owner = sc;
 		running = true;
 		serverIDs.add(new Integer(port));
-		main.start();
+		listen();
+	}
+
+	// New connections are accepted by a reactor (see Reactor)
+	// and each one is handed to the next reactor in the pool,
+	// which runs its handshake.  The server hears about it
+	// only when the handshake succeeds (see accepted()).
+	private synchronized void listen()
+	{
+		try
+		{
+			srv = ServerSocketChannel.open();
+			srv.socket().setReuseAddress(true);
+			srv.socket().bind(new InetSocketAddress(port));
+			srv.configureBlocking(false);
+			final Reactor r = Reactor.next();
+			final ServerSocketChannel ch = srv;
+			acceptor = r;
+			r.execute(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						ch.register(r.selector(), SelectionKey.OP_ACCEPT, Server.this);
+					}
+					catch (IOException e) {}
+				}
+			});
+		}
+		catch (IOException e)
+		{
+			if (srv != null)
+			{
+				try {
+					srv.close();
+				} catch (IOException e2) {}
+				srv = null;
+			}
+			if (running && !isIgnoring())
+			{
+				owner.println("Port unavailable, please select a different port.");
+				owner.println("Ignoring new connections.");
+				ignore(true);
+			}
+		}
+	}
+
+	// A socket that fails while it is set up is closed on its own;
+	// the listening channel stays open for the next client.  If
+	// accept() itself fails (most likely the process is out of file
+	// descriptors) the key would stay ready, so accepting stops
+	// for ACCEPT_RETRY ms instead of spinning the reactor.
+	public void ready(SelectionKey key)
+	{
+		while (true)
+		{
+			SocketChannel ch;
+			try
+			{
+				ch = ((ServerSocketChannel)key.channel()).accept();
+			}
+			catch (IOException e)
+			{
+				if (!key.isValid())
+					return;
+				e.printStackTrace();
+				acceptKey = key;
+				key.interestOps(0);
+				acceptor.schedule(resumeAccept, ACCEPT_RETRY);
+				return;
+			}
+			if (ch == null)
+				return;
+
+			try
+			{
+				ch.configureBlocking(false);
+				ch.socket().setTcpNoDelay(true);
+				Metrics.accepted.incrementAndGet();
+				new ServerConnection(this, ch, password).start(Reactor.next());
+			}
+			catch (IOException e)
+			{
+				try
+				{
+					ch.close();
+				} catch (IOException e2) {}
+			}
+		}
+	}
+
+	// called by the connection when its handshake succeeds
+	void accepted(ServerConnection sc)
+	{
+		if (!running || isIgnoring())
+		{
+			sc.disconnect();
+			return;
+		}
+		add(sc);
+		owner.add(sc, privilege);
 	}
 
 	public synchronized void ignore(boolean b)
 	{
-		if (b == (0 == ignore.availablePermits()))
+		if (b == ignoring)
 			return;
 		
-		if (0 == ignore.availablePermits())
+		ignoring = b;
+		if (!ignoring)
 		{
-			ignore.release();
 			serverIDs.add(new Integer(port));
+			listen();
 		}
 		else
 		{
-			ignore.acquireUninterruptibly();
-			
 			if (srv != null)
 			{
 				try {
@@ -108,8 +188,6 @@ public abstract class Server implements MessageHandler
 				} catch (IOException e) {}
 				srv = null;
 			}
-			if (connecting != null)
-				connecting.disconnect();
 			
 			serverIDs.remove(new Integer(port));
 		}
@@ -117,7 +195,7 @@ public abstract class Server implements MessageHandler
 	
 	public boolean isIgnoring()
 	{
-		return 0 == ignore.availablePermits();
+		return ignoring;
 	}
 	
 	public int getPort()
@@ -128,54 +206,49 @@ public abstract class Server implements MessageHandler
 	public void close()
 	{
 		running = false;
-		if (connecting != null)
-			connecting.disconnect();
-		
-		if (isIgnoring())
-			ignore.release();
-		else
-			serverIDs.remove(new Integer(port));
-			
-		while (connections.size() > 0)
-		{
-			connections.get(0).unregister(this);
-			connections.get(0).bye();
-			connections.remove(0);
-		}
 		
-		try
+		synchronized (this)
 		{
-			main.join();
+			if (srv != null)
+			{
+				try {
+					srv.close();
+				} catch (IOException e) {}
+				srv = null;
+			}
 		}
-		catch (InterruptedException e)
+
+		if (!isIgnoring())
+			serverIDs.remove(new Integer(port));
+			
+		for (ServerConnection sc : connections)
 		{
-			e.printStackTrace();
+			sc.bye();
+			if (connections.remove(sc))
+				removed(sc);
 		}
 	}
 	
-	protected synchronized void add(ServerConnection sc)
+	// Each connection tells the server itself when it leaves,
+	// rather than the server looking for the one that left.
+	protected void add(final ServerConnection sc)
 	{
-		sc.register(this);
 		connections.add(sc);
-	}
-	
-	public void bye()
-	{
-		for (int i=0;i<connections.size();)
+		sc.register(new MessageHandler()
 		{
-			if (connections.get(i).connected())
+			public boolean read(int type, DataInputStream in)
 			{
-				i++;
+				return false; //ignore all messages
 			}
-			else
+
+			public void bye()
 			{
-				connections.remove(i);
+				if (connections.remove(sc))
+					removed(sc);
 			}
-		}
+		});
 	}
 
-	public boolean read(int type, DataInputStream in)
-	{
-		return false; //ignore all messages
-	}
+	// an idle connection left the server
+	protected void removed(ServerConnection sc) {}
 }
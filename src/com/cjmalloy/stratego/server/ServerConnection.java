@@ -18,93 +18,310 @@
 package com.cjmalloy.stratego.server;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 
 import com.cjmalloy.stratego.server.shared.Connection;
 import com.cjmalloy.stratego.server.shared.Hash;
 import com.cjmalloy.stratego.server.shared.Message;
 
-public class ServerConnection extends Connection
+// A client socket served by a Reactor.
+//
+// The handshake (protocol version, then password) is a state machine
+// driven by the bytes as they arrive, so a slow client holds up
+// nobody.  After the handshake, the input is split into packets
+// and each packet goes to the clients like any other Connection.
+// Packets written by any thread are queued and written without
+// blocking; the reactor writes the remainder when the socket drains.
+//
+// Packets are read where they lie in the input and written from
+// the frame they were built in, so only output that has to wait
+// for the socket is copied, and the queue goes out in one
+// gathering write.
+
+public class ServerConnection extends Connection implements Reactor.Handler
 {
 	public String alias;
 	public boolean ignore = false;;
-	private ServerSocket srv = null;
+	public int minorVersion = 0;	// client protocol minor version
 	private static final long m = System.currentTimeMillis();
-	
-	public synchronized boolean connect(ServerSocket ss, String password) throws IOException
+
+	private static final int VERSION = 0;	// waiting for protocol version
+	private static final int PASSWORD = 1;	// waiting for password hash
+	private static final int OPEN = 2;	// reading packets
+
+	private static final int READ_DELAY = 2000;	// min ms between packets
+	private static final int HANDSHAKE_TIMEOUT = 30000;	// ms
+	private static final int MAX_PACKET = 1<<16;
+	private static final int MAX_QUEUED = 1<<18;	// unsent bytes before drop
+	private static final int MAX_GATHER = 16;	// buffers per write
+
+	private Server server = null;
+	private SocketChannel channel = null;
+	private SelectionKey key = null;
+	private Reactor reactor = null;
+	private String password = "";
+	private String salt = null;
+	private int state = VERSION;
+	private long nextRead = 0;
+	private ByteBuffer input = ByteBuffer.allocate(256);
+	private ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+	private int queued = 0;
+	private boolean writing = false;
+	private ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+	private long startTime = 0;	// ns, for the handshake time
+
+	protected ServerConnection() {}
+
+	public ServerConnection(Server s, SocketChannel ch, String pass)
 	{
-		if (sock != null)
-			disconnect();
+		server = s;
+		channel = ch;
+		password = pass;
+	}
+
+	public void start(Reactor r)
+	{
+		reactor = r;
+		startTime = System.nanoTime();
+		reactor.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					key = channel.register(reactor.selector(), SelectionKey.OP_READ, ServerConnection.this);
+				}
+				catch (IOException e)
+				{
+					close();
+				}
+			}
+		});
+		reactor.schedule(new Runnable()
+		{
+			public void run()
+			{
+				if (state != OPEN)
+					close();
+			}
+		}, HANDSHAKE_TIMEOUT);
+	}
+
+	public void ready(SelectionKey k) throws IOException
+	{
+		if (k.isWritable())
+		{
+			synchronized (output)
+			{
+				write();
+			}
+		}
+
+		if (channel == null || !k.isValid() || !k.isReadable())
+			return;
+
+		int n;
 		try
 		{
-			srv = ss;
-			sock = srv.accept();
+			n = channel.read(input);
 		}
-		finally
+		catch (IOException e)
 		{
-			srv = null;
+			n = -1;
 		}
-		
-		try
+		if (n < 0)
 		{
-			out = new DataOutputStream(sock.getOutputStream());
-			in = new DataInputStream(sock.getInputStream());
-			//get their version number
-			if (in.readInt() != Message.PROTOCOL_MAJOR_VERSION ||
-				in.readInt()  < Message.PROTOCOL_MINOR_VERSION)
+			lost();
+			return;
+		}
+
+		if (!consume())
+			return;
+
+		// a packet too large for the buffer
+		if (!input.hasRemaining())
+		{
+			ByteBuffer bb = ByteBuffer.allocate(input.capacity() * 2);
+			input.flip();
+			bb.put(input);
+			input = bb;
+		}
+	}
+
+	// Consumes whatever the input holds that is complete.
+	// Like the thread per connection before it, a connection
+	// is limited to a packet every READ_DELAY ms, so input
+	// is paused until the next packet is due.
+	private void parse() throws IOException
+	{
+		while (channel != null)
+		{
+			switch (state)
 			{
-				out.writeInt(Message.UPDATE.ordinal());
-				startSending();
+			case VERSION:
+				if (input.remaining() < 8)
+					return;
+				int major = input.getInt();
+				int minor = input.getInt();
+				version(major, minor);
+				break;
+
+			case PASSWORD:
+				if (input.remaining() < 40)
+					return;
+				byte[] bs = new byte[40];
+				input.get(bs);
+				password(new String(bs, CHAR_ENCODING));
+				break;
+
+			default:
+				if (input.remaining() < 4)
+					return;
+				int len = input.getInt(input.position());
+				if (len < 0 || len > MAX_PACKET)
+				{
+					lost();
+					return;
+				}
+				if (input.remaining() < 4 + len)
+					return;
+
+				long now = System.currentTimeMillis();
+				if (now < nextRead)
+				{
+					pause(nextRead - now);
+					return;
+				}
+				nextRead = now + READ_DELAY;
+
+				Metrics.packetsIn.incrementAndGet();
+				Metrics.bytesIn.addAndGet(4 + len);
+				input.getInt();
+				int end = input.position() + len,
+					limit = input.limit();
+				input.limit(end);
 				try
 				{
-					println(Message.DOWNLOAD_URL);
+					dispatch(input);
 				}
 				finally
 				{
-					stopSending();
-				}	
-				disconnect();
-				return false;
+					input.limit(limit);
+					input.position(end);
+				}
 			}
-			else
-			{
-				//write anything except UPDATE
-				out.writeInt(Message.UPDATE.ordinal()+1);
-			}	
+		}
+	}
 
-			if (!password.equals(""))
+	private void pause(long delay)
+	{
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		reactor.schedule(new Runnable()
+		{
+			public void run()
 			{
-				String salt = Hash.Sha1((""+System.currentTimeMillis())+m);
-				out.write(encode(salt));
-				out.flush();
-				String pass = Connection.decode(40, in);
-				if (!Hash.Sha1(salt+password).equals(pass))
-				{
-					startSending();
-					try
-					{
-						println("Invalid password");
-					}
-					finally
-					{
-						stopSending();
-					}	
-					disconnect();
-					return false;
-				}
+				if (channel == null || !key.isValid())
+					return;
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+				consume();
 			}
+		}, delay);
+	}
+
+	// Parses the input and compacts it for the next read.  If a
+	// handler throws, the state it left cannot be trusted, so the
+	// connection is dropped as if it were lost.  Returns false if
+	// the connection is closed.
+	private boolean consume()
+	{
+		input.flip();
+		try
+		{
+			parse();
 		}
 		catch (IOException e)
 		{
-			//authentication error
+			lost();
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			lost();
+		}
+		if (channel == null)
 			return false;
+		input.compact();
+		return true;
+	}
+
+	private void version(int major, int minor)
+	{
+		//get their version number
+		if (major != Message.PROTOCOL_MAJOR_VERSION ||
+			minor < Message.OLDEST_MINOR_VERSION)
+		{
+			queueInt(Message.UPDATE.ordinal());
+			startSending();
+			try
+			{
+				println(Message.DOWNLOAD_URL);
+			}
+			finally
+			{
+				stopSending();
+			}
+			disconnect();
+			return;
+		}
+
+		//write anything except UPDATE
+		queueInt(Message.UPDATE.ordinal()+1);
+		minorVersion = minor;
+
+		if (password.equals(""))
+		{
+			open();
+			return;
+		}
+
+		salt = Hash.Sha1((""+System.currentTimeMillis())+m);
+		queue(ByteBuffer.wrap(encode(salt)));
+		state = PASSWORD;
+	}
+
+	private void password(String pass)
+	{
+		if (Hash.Sha1(salt+password).equals(pass))
+		{
+			open();
+			return;
+		}
+
+		startSending();
+		try
+		{
+			println("Invalid password");
+		}
+		finally
+		{
+			stopSending();
 		}
+		disconnect();
+	}
 
-		alias = sock.getInetAddress().getHostAddress()
-				+ ":" + sock.getPort();
-		startReading();
+	private void open()
+	{
+		state = OPEN;
+		Metrics.handshakes.incrementAndGet();
+		Metrics.handshake.record(System.nanoTime() - startTime);
+		Metrics.connections.incrementAndGet();
+		nextRead = System.currentTimeMillis() + READ_DELAY;
+		alias = channel.socket().getInetAddress().getHostAddress()
+				+ ":" + channel.socket().getPort();
 		startSending();
 		try
 		{
@@ -114,43 +331,231 @@ public class ServerConnection extends Connection
 		{
 			stopSending();
 		}
-		return true;
+		server.accepted(this);
 	}
-	
-	protected void read()
+
+	public boolean connected()
+	{
+		return channel != null;
+	}
+
+	protected void send(byte[] bs, int len)
 	{
-		try {
-			Thread.sleep(2000);
-		} catch (InterruptedException e) {}
+		ByteBuffer frame = ByteBuffer.wrap(bs, 0, len);
+		synchronized (output)
+		{
+			if (channel == null)
+				return;
+			Metrics.sent(bs, len);
+
+			// straight to the socket when nothing is waiting
+			if (!writing && output.isEmpty())
+			{
+				try
+				{
+					channel.write(frame);
+				}
+				catch (IOException e)
+				{
+					return;
+				}
+			}
 
-		super.read();
+			// the frame is reused for the next packet,
+			// so what the socket did not take is copied
+			while (frame.hasRemaining())
+			{
+				ByteBuffer bb = BufferPool.get();
+				int n = Math.min(bb.remaining(), frame.remaining());
+				int limit = frame.limit();
+				frame.limit(frame.position() + n);
+				bb.put(frame);
+				frame.limit(limit);
+				bb.flip();
+				queue(bb);
+			}
+		}
 	}
-	
+
+	// A whole frame (length and packet) that other connections are
+	// sent too.  It is queued by reference, so it must not change.
+	public void sendShared(byte[] frame)
+	{
+		if (channel == null)
+			return;
+		Metrics.sent(frame, frame.length);
+		queue(ByteBuffer.wrap(frame));
+	}
+
+	private void queueInt(int i)
+	{
+		ByteBuffer bb = ByteBuffer.allocate(4);
+		bb.putInt(i);
+		bb.flip();
+		queue(bb);
+	}
+
+	private void queue(ByteBuffer bb)
+	{
+		boolean full;
+		synchronized (output)
+		{
+			if (channel == null)
+				return;
+			output.add(bb);
+			queued += bb.remaining();
+			if (!writing)
+				write();
+			full = queued > MAX_QUEUED;
+		}
+
+		// the client is not reading
+		if (full)
+			reactor.execute(new Runnable()
+			{
+				public void run()
+				{
+					lost();
+				}
+			});
+	}
+
+	// call with output locked
+	private void write()
+	{
+		try
+		{
+			while (channel != null && !output.isEmpty())
+			{
+				int n = 0;
+				for (ByteBuffer bb : output)
+				{
+					if (n == MAX_GATHER)
+						break;
+					gather[n++] = bb;
+				}
+				queued -= channel.write(gather, 0, n);
+				for (int i=0;i<n;i++)
+					gather[i] = null;
+
+				for (int i=0;i<n;i++)
+				{
+					if (output.peek().hasRemaining())
+					{
+						if (!writing)
+							interest(SelectionKey.OP_WRITE, true);
+						writing = true;
+						return;
+					}
+					BufferPool.put(output.poll());
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			clear();
+		}
+		if (writing)
+			interest(SelectionKey.OP_WRITE, false);
+		writing = false;
+	}
+
+	private void interest(final int ops, final boolean on)
+	{
+		reactor.execute(new Runnable()
+		{
+			public void run()
+			{
+				if (key == null || !key.isValid())
+					return;
+				if (on)
+					key.interestOps(key.interestOps() | ops);
+				else
+					key.interestOps(key.interestOps() & ~ops);
+			}
+		});
+	}
+
+	// the client went away
+	private void lost()
+	{
+		if (clients != null && state == OPEN)
+			bye();
+		close();
+	}
+
+	private void close()
+	{
+		SocketChannel ch;
+		synchronized (output)
+		{
+			ch = channel;
+			channel = null;
+			clear();
+		}
+		if (ch == null)
+			return;
+		if (state == OPEN)
+			Metrics.connections.decrementAndGet();
+		if (key != null)
+			key.cancel();
+		try
+		{
+			ch.close();
+		} catch (IOException e) {}
+	}
+
+	// call with output locked
+	private void clear()
+	{
+		for (ByteBuffer bb : output)
+			BufferPool.put(bb);
+		output.clear();
+		queued = 0;
+		for (int i=0;i<MAX_GATHER;i++)
+			gather[i] = null;
+	}
+
 	protected boolean recieve(int type, DataInputStream packet)
 	{
-		return sendMessage(type, packet);
+		if (clients == null)
+			return false;
+		int start = input.position();
+		try
+		{
+			return sendMessage(type, packet);
+		}
+		finally
+		{
+			Metrics.received(type, 4 + input.position() - start);
+		}
 	}
 	
 	public void bye()
 	{
-		if (!closing.tryAcquire()) return;
-		
 		super.bye();
 		clients = null;
 	}
 	
 	protected void disconnect()
 	{
-		try
+		// say BYE and close without waiting for the client
+		synchronized (output)
 		{
-			if (srv != null)
-				srv.close();
-		} catch (IOException e) {}
-		finally
-		{
-			srv = null;
+			if (channel == null)
+				return;
+			queueInt(4);
+			queueInt(Message.BYE.ordinal());
+			write();
 		}
-		
-		super.disconnect();
+		close();
+	}
+
+	public String status()
+	{
+		if (channel != null)
+			return channel.socket().getInetAddress().getHostAddress();
+		else
+			return "Not connected";
 	}
 }
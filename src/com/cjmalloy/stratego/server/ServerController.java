@@ -38,21 +38,24 @@ public class ServerController
 				} catch (InterruptedException e) {}
 				try
 				{
-					Log.println("*************");
-					Log.println(getGameServer().status());
-					Log.println(getGameServer().idle());
-					Log.println("Port " + getGameServer().getPort());
+					// one entry, so other lines do not interleave
+					StringBuilder s = new StringBuilder();
+					s.append("*************\n");
+					s.append(getGameServer().status()).append('\n');
+					s.append(getGameServer().idle()).append('\n');
+					s.append("Port " + getGameServer().getPort()).append('\n');
 					if (getGameServer().isIgnoring())
-						Log.println("Ignoring new connections.");
+						s.append("Ignoring new connections.\n");
 					else
-						Log.println("Accepting new connections.");
+						s.append("Accepting new connections.\n");
 					if (getGameServer().isClosingWhenEmpty())
-						Log.println("Will close when no games are being played.");
-					Log.println("*************");
-					Log.println(getGameServer().status());
-					Log.println(getGameServer().games());
-					Log.println("*************");
-					Log.println(getRemotes());
+						s.append("Will close when no games are being played.\n");
+					s.append("*************\n");
+					s.append(getGameServer().status()).append('\n');
+					s.append(getGameServer().games()).append('\n');
+					s.append("*************\n");
+					s.append(getRemotes());
+					Log.println(s.toString());
 				}
 				catch (Exception e) {}
 			}
@@ -63,6 +66,7 @@ public class ServerController
 	{
 		port = p;
 		logThread.start();
+		Metrics.startFile();
 	}
 	
 	public GameServer getGameServer()
@@ -92,7 +96,9 @@ public class ServerController
 			c.startSending();
 			try
 			{
-				if (users.size() == 1)
+				if (users == null)
+					c.println("Nobody is available for a game.");
+				else if (users.size() == 1)
 					c.println(users.get(0) + " is unavailable.");
 				else
 					c.println("All users are unavailable.");
@@ -190,7 +196,6 @@ public class ServerController
 	public void println(String e)
 	{
 		print(e+"\n");
-		Log.println(e);
 	}
 	
 	public void print(String e)
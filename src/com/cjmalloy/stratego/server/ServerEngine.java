@@ -20,6 +20,7 @@ package com.cjmalloy.stratego.server;
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Engine;
 import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
 import com.cjmalloy.stratego.Settings;
 import com.cjmalloy.stratego.Spot;
 import com.cjmalloy.stratego.Status;
@@ -63,7 +64,10 @@ public class ServerEngine extends Engine
 		}
 	
 		if (board.getTraySize() == 0)
+		{
 			status = Status.PLAYING;
+			game.record.setup(board);
+		}
 	}
 	
 
@@ -79,7 +83,12 @@ public class ServerEngine extends Engine
 			if (color == turn)
 			{
 				board.hideAll();
-				requestMove(m, false);
+				Piece target = board.getPiece(m.getTo());
+				int move = m.getMove(),
+					attacker = board.getPiece(m.getFrom()).getActualRank().ordinal(),
+					defender = target == null ? -1 : target.getActualRank().ordinal();
+				if (requestMove(m, false))
+					game.record.move(move, attacker, defender);
 			}
 		}
 		else if (status == Status.SETUP)
@@ -103,12 +112,42 @@ public class ServerEngine extends Engine
 		}
 	}
 	
+	public Board getBoard()
+	{
+		return board;
+	}
+
+	public boolean isPlaying()
+	{
+		return status == Status.PLAYING;
+	}
+
+	public void resign(int color)
+	{
+		if (status != Status.PLAYING)
+			return;
+		status = Status.STOPPED;
+		board.showAll();
+		game.log("resign " + color);
+		game.record.resign(color);
+		gameOver((color + 1) % 2);
+	}
+	
 	@Override
 	protected void gameOver(int winner)
 	{
 		game.gameOver(winner);
 	}
 
+	// The players and spectators are shown the attacker before
+	// the result (see Game.reveal()).  Pacing the reveal is up to
+	// the client, the game is locked here.
+	@Override
+	protected void reveal(Move m)
+	{
+		game.reveal(m);
+	}
+
 	@Override
 	protected void update()
 	{
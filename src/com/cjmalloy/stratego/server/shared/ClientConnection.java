@@ -89,7 +89,7 @@ public class ClientConnection extends Connection
 	
 	protected boolean recieve(int type, DataInputStream packet)
 	{
-		switch (Message.values()[type])
+		switch (Message.get(type))
 		{
 		case UPDATE:
 			String downloadURL = new Scanner(packet).next();
@@ -17,14 +17,18 @@
 
 package com.cjmalloy.stratego.server.shared;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.concurrent.Semaphore;
 
 
@@ -32,19 +36,117 @@ public abstract class Connection
 {
 	public static final String CHAR_ENCODING = "ASCII";
 	
+	// A packet is written in place after four bytes kept for its
+	// length, so a finished packet is already a frame and goes to
+	// the socket as it is.  Before, every packet was copied out
+	// by toByteArray() and then copied again behind its length.
+	public static class Frame extends ByteArrayOutputStream
+	{
+		public Frame()
+		{
+			super(256);
+		}
+
+		public void begin()
+		{
+			count = 4;
+		}
+
+		// sets the length, returns the frame size
+		public int end()
+		{
+			int len = count - 4;
+			buf[0] = (byte)(len >>> 24);
+			buf[1] = (byte)(len >>> 16);
+			buf[2] = (byte)(len >>> 8);
+			buf[3] = (byte)len;
+			return count;
+		}
+
+		public byte[] array()
+		{
+			return buf;
+		}
+
+		// most of a packet is ints, written here in one step
+		// rather than a byte at a time through DataOutputStream
+		public void writeInt(int i)
+		{
+			if (count + 4 > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + 4));
+			buf[count] = (byte)(i >>> 24);
+			buf[count+1] = (byte)(i >>> 16);
+			buf[count+2] = (byte)(i >>> 8);
+			buf[count+3] = (byte)i;
+			count += 4;
+		}
+
+		public void writeVarint(int i)
+		{
+			while ((i & ~0x7F) != 0)
+			{
+				write((i & 0x7F) | 0x80);
+				i >>>= 7;
+			}
+			write(i);
+		}
+	}
+
+	// Reads a received packet where it lies, so the input
+	// need not be copied for each packet
+	private static class PacketInput extends InputStream
+	{
+		ByteBuffer packet = null;
+
+		public int read()
+		{
+			if (!packet.hasRemaining())
+				return -1;
+			return packet.get() & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len)
+		{
+			Objects.checkFromIndexSize(off, len, b.length);
+			if (len == 0)
+				return 0;
+			if (!packet.hasRemaining())
+				return -1;
+			len = Math.min(len, packet.remaining());
+			packet.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n)
+		{
+			n = Math.max(0, Math.min(n, packet.remaining()));
+			packet.position(packet.position() + (int)n);
+			return n;
+		}
+
+		public int available()
+		{
+			return packet.remaining();
+		}
+	}
+
 	protected Socket sock = null;
 	protected DataInputStream in = null;
 	protected DataOutputStream out = null;
 	protected ArrayList<MessageHandler> clients = new ArrayList<MessageHandler>();
 	private Semaphore sending = new Semaphore(1);
 	private DataOutputStream buffer = null;
-	private ByteArrayOutputStream byteBuffer = null;
+	private Frame frame = null;
+	private PacketInput packetInput = new PacketInput();
+	private DataInputStream packetData = new DataInputStream(packetInput);
+	private byte[] readBuffer = new byte[256];
+	private ByteBuffer readPacket = ByteBuffer.wrap(readBuffer);
 	protected Semaphore closing = new Semaphore(1);
 	
 	protected Connection()
 	{
-		byteBuffer = new ByteArrayOutputStream();
-		buffer = new DataOutputStream(byteBuffer);
+		frame = new Frame();
+		buffer = new DataOutputStream(frame);
 	}
 	
 	public synchronized void register(MessageHandler mh)
@@ -81,36 +183,59 @@ public abstract class Connection
 		try
 		{
 			int len = in.readInt();
-			byte[] bs = readBytes(len);
-			DataInputStream packet = new DataInputStream( new ByteArrayInputStream(bs));
-			try
+			if (len < 0)
+				throw new IOException("bad packet length");
+			if (len > readBuffer.length)
 			{
-				while (packet.available() > 0)
+				readBuffer = new byte[Math.max(len, readBuffer.length * 2)];
+				readPacket = ByteBuffer.wrap(readBuffer);
+			}
+			in.readFully(readBuffer, 0, len);
+			readPacket.clear();
+			readPacket.limit(len);
+			dispatch(readPacket);
+		}
+		catch (IOException e)
+		{
+			if (clients != null)
+				bye();
+			return;
+		}
+	}
+
+	// hands each message of a received packet to the clients,
+	// which must be done with the packet when they return
+	protected void dispatch(ByteBuffer bb)
+	{
+		packetInput.packet = bb;
+		try
+		{
+			while (bb.hasRemaining())
+			{
+				int type = packetData.readInt();
+				// the rest of a bad packet cannot be trusted
+				if (!Message.valid(type))
+					return;
+				switch (Message.get(type))
 				{
-					int type = packet.readInt();
-					switch (Message.values()[type])
-					{
-					case BYE:
-						bye();
+				case BYE:
+					bye();
+					return;
+				default:
+					if (!recieve(type, packetData))
 						return;
-					default:
-						if (!recieve(type, packet))
-							return;
-					}
 				}
 			}
-			catch (IOException e)
-			{
-				e.printStackTrace();
-				return;
-			}
 		}
 		catch (IOException e)
 		{
-			if (clients != null)
-				bye();
+			e.printStackTrace();
 			return;
 		}
+		finally
+		{
+			packetInput.packet = null;
+		}
 	}
 	
 	// if the receiving end does not accept a message,
@@ -120,7 +245,7 @@ public abstract class Connection
 	{
 		// start packet
 		sending.acquireUninterruptibly();
-		byteBuffer.reset();
+		frame.begin();
 	}
 	
 	public void stopSending()
@@ -130,7 +255,7 @@ public abstract class Connection
 		{
 			System.out.println("sync error");
 		}
-		if (sock == null)
+		if (!connected())
 		{
 			sending.release();
 			return;
@@ -139,8 +264,7 @@ public abstract class Connection
 		try
 		{
 			buffer.flush();
-			writeBytes(byteBuffer.toByteArray());
-			out.flush();
+			send(frame.array(), frame.end());
 		}
 		catch (IOException e)
 		{
@@ -152,14 +276,27 @@ public abstract class Connection
 	
 	public synchronized void writeInt(int i)
 	{
-		try
-		{
-			buffer.writeInt(i);
-		}
-		catch (IOException e)
+		frame.writeInt(i);
+	}
+
+	// Variable length int (7 bits per byte, low bits first)
+	// for small non-negative values, such as in DELTA messages
+	public synchronized void writeVarint(int i)
+	{
+		frame.writeVarint(i);
+	}
+
+	public static int readVarint(DataInputStream input) throws IOException
+	{
+		int i = 0;
+		for (int shift = 0; shift < 32; shift += 7)
 		{
-			bye();
+			int b = input.readUnsignedByte();
+			i |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return i;
 		}
+		throw new IOException("bad varint");
 	}
 
 	public void println(String s)
@@ -198,7 +335,7 @@ public abstract class Connection
 		try
 		{
 			byte[] bs = encode(s);
-			buffer.writeInt(bs.length);
+			frame.writeInt(bs.length);
 			buffer.write(bs);
 		}
 		catch (IOException e)
@@ -207,33 +344,12 @@ public abstract class Connection
 		}
 	}
 	
-	private void writeBytes(byte[] bs)
-	{
-		try
-		{
-			out.writeInt(bs.length);
-			out.write(bs);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
-	}
-	
-	private byte[] readBytes(int len)
+	// writes a frame (length and packet) to the socket,
+	// the frame is reused as soon as this returns
+	protected void send(byte[] bs, int len) throws IOException
 	{
-		byte[] bs = null;
-		try
-		{
-			bs = new byte[len];
-			for (int i=0;i<len;)
-				i += in.read(bs, i, len-i);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
-		return bs;
+		out.write(bs, 0, len);
+		out.flush();
 	}
 	
 	protected boolean sendMessage(int type, DataInputStream packet)
@@ -289,15 +405,17 @@ public abstract class Connection
 	
 	public static String decode(int len, DataInputStream input) throws IOException
 	{
+		// a string cannot be longer than what is left of its
+		// packet, so a bad length is refused before it is allocated
+		if (len < 0 || len > input.available())
+			throw new EOFException("truncated string");
 		byte[] bs = new byte[len];
-		try
-		{
 		for (int i=0;i<len;)
-			i += input.read(bs, i, len-i);
-		}
-		catch (IndexOutOfBoundsException e)
 		{
-			//bad input
+			int n = input.read(bs, i, len-i);
+			if (n < 0)
+				throw new EOFException("truncated string");
+			i += n;
 		}
 		return new String(bs, CHAR_ENCODING);
 	}
@@ -29,7 +29,9 @@ public enum Message
 	GAMEOVER,
 	DISC,
 	CMD,
-	MSG;
+	MSG,
+	DELTA,
+	REVEAL; // new types go last, clients decode by ordinal
 	
 
 	public static final char ADMIN_PREFIX = '.';
@@ -38,7 +40,25 @@ public enum Message
 	public static final char IGRNORE_PREFIX = ',';
 
 	public static final int PROTOCOL_MAJOR_VERSION = 2;
-	public static final int PROTOCOL_MINOR_VERSION = 0;
+	public static final int PROTOCOL_MINOR_VERSION = 3;
+	public static final int OLDEST_MINOR_VERSION = 0;	// oldest client served
+	public static final int DELTA_MINOR_VERSION = 1;	// clients sent DELTA instead of GRID/TRAY
+	public static final int PRESENCE_MINOR_VERSION = 2;	// clients sent user list changes
+	public static final int REVEAL_MINOR_VERSION = 3;	// clients sent REVEAL before an attack
 	public static final String DOWNLOAD_URL = "http://java-stratego.sourceforge.net";
 	public static final String WELCOME_MSG  = "Welcome to Stratego @cs.smu.ca.\nType :h for help or :<command>.\n";
+
+	// values() copies the array on every call,
+	// which was once for every message received
+	private static final Message[] TYPES = values();
+
+	public static Message get(int type)
+	{
+		return TYPES[type];
+	}
+
+	public static boolean valid(int type)
+	{
+		return type >= 0 && type < TYPES.length;
+	}
 }
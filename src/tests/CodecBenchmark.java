@@ -0,0 +1,290 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import com.cjmalloy.stratego.server.shared.Connection;
+import com.cjmalloy.stratego.server.shared.Message;
+
+// Messages per second and bytes allocated per message of the
+// packet codec, the way packets were built and read before the
+// frames were reused ("old") and the way Connection does it now
+// ("new").  A board packet is a full update (100 GRID and 80 TRAY
+// messages), a chat packet is one MSG.
+//
+//	java -cp <classes> CodecBenchmark [packets]
+
+public class CodecBenchmark extends Connection
+{
+	private static final String CHAT = "red: good game, again?\n";
+
+	// what Game and the lobby use to write a packet
+	interface Writer
+	{
+		public void writeInt(int i);
+		public void writeString(String s);
+	}
+
+	// the packet buffer of Connection before frames were reused
+	private static class OldConnection implements Writer
+	{
+		private ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+		private DataOutputStream buffer = new DataOutputStream(byteBuffer);
+
+		public synchronized void writeInt(int i)
+		{
+			try
+			{
+				buffer.writeInt(i);
+			}
+			catch (IOException e) {}
+		}
+
+		public void writeString(String s)
+		{
+			try
+			{
+				byte[] bs = encode(s);
+				buffer.writeInt(bs.length);
+				buffer.write(bs);
+			}
+			catch (IOException e) {}
+		}
+
+		public byte[] packet()
+		{
+			byte[] bs = byteBuffer.toByteArray();
+			byteBuffer.reset();
+			return bs;
+		}
+
+		// the frame the server queued for each packet
+		public ByteBuffer frame()
+		{
+			byte[] bs = packet();
+			ByteBuffer bb = ByteBuffer.allocate(4 + bs.length);
+			bb.putInt(bs.length);
+			bb.put(bs);
+			bb.flip();
+			return bb;
+		}
+	}
+
+	private int sent = 0;
+
+	public boolean connected()
+	{
+		return true;
+	}
+
+	protected void send(byte[] bs, int len)
+	{
+		sent += len;
+	}
+
+	protected boolean recieve(int type, DataInputStream packet)
+	{
+		try
+		{
+			return consume(type, packet);
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	private static boolean consume(int type, DataInputStream packet) throws IOException
+	{
+		switch (Message.get(type))
+		{
+		case GRID:
+			packet.readInt();
+			packet.readInt();
+			packet.readInt();
+			packet.readInt();
+			return true;
+		case TRAY:
+			packet.readInt();
+			packet.readInt();
+			packet.readInt();
+			return true;
+		case MSG:
+			decode(packet.readInt(), packet);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private interface Codec
+	{
+		// returns the number of messages
+		public int run(boolean board) throws IOException;
+	}
+
+	// writes a board or chat packet, returns the number of messages
+	private static int write(Writer w, boolean board)
+	{
+		if (!board)
+		{
+			w.writeInt(Message.MSG.ordinal());
+			w.writeString(CHAT);
+			return 1;
+		}
+		for (int j=0;j<10;j++)
+		for (int k=0;k<10;k++)
+		{
+			w.writeInt(Message.GRID.ordinal());
+			w.writeInt(j);
+			w.writeInt(k);
+			w.writeInt(j < 4 ? 0 : -1);
+			w.writeInt(j < 4 ? k : 13);
+		}
+		for (int i=0;i<80;i++)
+		{
+			w.writeInt(Message.TRAY.ordinal());
+			w.writeInt(i % 40);
+			w.writeInt(i / 40);
+			w.writeInt(13);
+		}
+		return 180;
+	}
+
+	private static long allocated()
+	{
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		return ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void measure(String name, Codec c, boolean board, int packets) throws IOException
+	{
+		// warm up
+		for (int i=0;i<packets/4;i++)
+			c.run(board);
+
+		long messages = 0;
+		long bytes = allocated();
+		long time = System.nanoTime();
+		for (int i=0;i<packets;i++)
+			messages += c.run(board);
+		time = System.nanoTime() - time;
+		bytes = allocated() - bytes;
+
+		System.out.printf("%-11s %-6s %12.0f msgs/s %8.1f bytes/msg%n",
+			name, board ? "board" : "chat",
+			messages * 1e9 / time, (double)bytes / messages);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int packets = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final CodecBenchmark conn = new CodecBenchmark();
+		final OldConnection old = new OldConnection();
+		final Writer current = new Writer()
+		{
+			public void writeInt(int i)
+			{
+				conn.writeInt(i);
+			}
+
+			public void writeString(String s)
+			{
+				conn.writeString(s);
+			}
+		};
+
+		Codec oldEncode = new Codec()
+		{
+			public int run(boolean board)
+			{
+				int n = write(old, board);
+				conn.sent += old.frame().remaining();
+				return n;
+			}
+		};
+		Codec newEncode = new Codec()
+		{
+			public int run(boolean board)
+			{
+				conn.startSending();
+				try
+				{
+					return write(current, board);
+				}
+				finally
+				{
+					conn.stopSending();
+				}
+			}
+		};
+
+		write(old, false);
+		final byte[] chat = old.packet();
+		write(old, true);
+		final byte[] grid = old.packet();
+
+		// the old reader allocated every packet it read
+		Codec oldDecode = new Codec()
+		{
+			public int run(boolean board) throws IOException
+			{
+				byte[] bs = (board ? grid : chat).clone();
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(bs));
+				int n = 0;
+				while (in.available() > 0)
+				{
+					int type = in.readInt();
+					Message.values()[type].ordinal();
+					if (!consume(type, in))
+						break;
+					n++;
+				}
+				return n;
+			}
+		};
+		final ByteBuffer chatInput = ByteBuffer.wrap(chat);
+		final ByteBuffer gridInput = ByteBuffer.wrap(grid);
+		Codec newDecode = new Codec()
+		{
+			public int run(boolean board)
+			{
+				ByteBuffer bb = board ? gridInput : chatInput;
+				bb.clear();
+				conn.dispatch(bb);
+				return board ? 180 : 1;
+			}
+		};
+
+		for (int i=0;i<2;i++)
+		{
+			boolean board = i == 1;
+			measure("old encode", oldEncode, board, packets);
+			measure("new encode", newEncode, board, packets);
+			measure("old decode", oldDecode, board, packets);
+			measure("new decode", newDecode, board, packets);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.cjmalloy.stratego.Board;
+import com.cjmalloy.stratego.Grid;
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
+import com.cjmalloy.stratego.Settings;
+import com.cjmalloy.stratego.Spot;
+import com.cjmalloy.stratego.player.TestingBoard;
+
+// Pre-processing determinism check.  For each seed, two random
+// setups play a number of random moves, and the position is
+// pre-processed into a TestingBoard.  One line per seed gives a
+// digest of the plans of every piece (the mazes of genDestTmp()
+// and what is made of them), the rank values and the board value.
+//
+// Run it on the tree before a change to pre-processing, then on
+// the tree after it with the first output.  It prints the seeds
+// whose digest changed and exits 1 if there are any:
+//
+//	java -cp <old classes> PlanCheck > plans.txt
+//	java -cp <new classes> PlanCheck plans.txt
+//
+// plans.txt in this directory was made with the queue of the maze
+// in genDestTmpCommon() as an ArrayList<Integer>, as it was before
+// it became a scratch buffer.
+
+public class PlanCheck
+{
+	private static final int SEEDS = 200;
+	private static final int[] dir = { -11, -1,  1, 11 };
+
+	private static long mix(long h, long v)
+	{
+		h ^= v;
+		h *= 0x100000001B3L;
+		return h ^ (h >>> 29);
+	}
+
+	// places the pieces of color in its four rows in random order
+	private static void setup(Board b, int color, Random rnd)
+	{
+		ArrayList<Piece> pieces = new ArrayList<Piece>();
+		for (int i = 0; i < b.getTraySize(); i++)
+			if (b.getTrayPiece(i).getColor() == color)
+				pieces.add(b.getTrayPiece(i));
+		int y0 = color == Settings.topColor ? 0 : 6;
+		for (int y = y0; y < y0 + 4; y++)
+			for (int x = 0; x < 10; x++)
+				b.add(pieces.remove(rnd.nextInt(pieces.size())), new Spot(x, y));
+	}
+
+	// makes a random one-square move or attack of the side to move,
+	// but does not take a flag, which would end the game
+	private static boolean randomMove(Board b, Random rnd)
+	{
+		ArrayList<Integer> moves = new ArrayList<Integer>();
+		for (int i = 12; i <= 120; i++) {
+			Piece p = b.getPiece(i);
+			if (p == null || p.getColor() != b.bturn)
+				continue;
+			for (int d : dir) {
+				int t = i + d;
+				if (!Grid.isValid(t))
+					continue;
+				Piece tp = b.getPiece(t);
+				if (tp != null && (tp.getColor() == b.bturn
+					|| tp.getActualRank() == Rank.FLAG))
+					continue;
+				int m = Move.packMove(i, t);
+				if (b.validMove(m))
+					moves.add(m);
+			}
+		}
+		if (moves.size() == 0)
+			return false;
+		int m = moves.get(rnd.nextInt(moves.size()));
+		Move move = new Move(b.getPiece(Move.unpackFrom(m)), m);
+		if (b.getPiece(Move.unpackTo(m)) == null)
+			b.move(move);
+		else
+			b.attack(move);
+		return true;
+	}
+
+	private static String digest(long seed)
+	{
+		Settings.topColor = Board.RED;
+		Settings.bottomColor = Board.BLUE;
+		Settings.seed = 1;	// pre-processing makes random choices
+		Random rnd = new Random(seed);
+		Board b = new Board();
+		setup(b, Board.RED, rnd);
+		setup(b, Board.BLUE, rnd);
+		int plies = rnd.nextInt(120);
+		for (int i = 0; i < plies; i++)
+			if (!randomMove(b, rnd))
+				break;
+		b.bturn = Settings.topColor;
+
+		TestingBoard tb = new TestingBoard(b);
+		long h = 0xCBF29CE484222325L;
+		for (int i = 12; i <= 120; i++) {
+			Piece p = tb.getPiece(i);
+			if (p == null || !Grid.isValid(i))
+				continue;
+			h = mix(h, i << 8 | p.getRank().ordinal());
+			int[][] plan = tb.getPlan(p);
+			if (plan == null)
+				continue;
+			for (int[] row : plan)
+				for (int v : row)
+					h = mix(h, v);
+		}
+		for (int[] row : tb.values)
+			for (int v : row)
+				h = mix(h, v);
+		h = mix(h, tb.getValue());
+		return seed + " " + plies + " " + Long.toHexString(h);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		ArrayList<String> expected = null;
+		if (args.length > 0) {
+			expected = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new FileReader(args[0]));
+			try {
+				String line;
+				while ((line = in.readLine()) != null)
+					expected.add(line);
+			} finally {
+				in.close();
+			}
+		}
+
+		int changed = 0;
+		for (int seed = 1; seed <= SEEDS; seed++) {
+			String d = digest(seed);
+			if (expected == null)
+				System.out.println(d);
+			else if (seed > expected.size()
+				|| !expected.get(seed - 1).equals(d)) {
+				System.out.println("changed: " + d);
+				changed++;
+			}
+		}
+		if (expected == null)
+			return;
+		System.out.println(changed == 0 ? "same plans and values for " + SEEDS + " seeds"
+			: changed + " of " + SEEDS + " seeds changed");
+		if (changed != 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.Vector;
+
+import com.cjmalloy.stratego.player.AITest;
+import com.cjmalloy.stratego.player.Protocol;
+
+// Microseconds per turn of the AITest side of the manager protocol,
+// the way it was read and written before Protocol ("old") and the
+// way Protocol does it now ("new").  A turn reads a result line and
+// the 10 board lines after it, and writes 4 board lines and a move.
+// The board goes to System.out, so send it to /dev/null:
+//
+//	java -cp <classes> ProtocolBenchmark [turns] > /dev/null
+
+public class ProtocolBenchmark
+{
+	private static final String[] RESULTS = {
+		"5 3 DOWN OK",
+		"4 6 UP 3 KILLS 3 9",
+		"0 6 RIGHT BOTHDIE 9 9",
+		"7 2 LEFT OK"
+	};
+	private static final char[] RANKS = "?123456789sBF".toCharArray();
+
+	private static byte[] input(int turns)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < turns; i++)
+		{
+			sb.append(RESULTS[i % RESULTS.length]).append('\n');
+			for (int j = 0; j < 10; j++)
+				sb.append("..........\n");
+		}
+		return sb.toString().getBytes();
+	}
+
+	// Scanner, a Vector of tokens and a character at a time
+	private static long old(byte[] in, int turns)
+	{
+		long sum = 0;
+		Scanner scan = new Scanner(new ByteArrayInputStream(in));
+		for (int i = 0; i < turns; i++)
+		{
+			Vector<String> result = AITest.readTokens(scan.nextLine());
+			sum += Integer.parseInt(result.elementAt(0))
+				+ Integer.parseInt(result.elementAt(1))
+				+ result.size();
+			for (int j = 0; j < 10; j++)
+				scan.nextLine();
+			for (int y = 0; y < 4; y++)
+			{
+				for (int x = 0; x < 10; x++)
+					System.out.print(RANKS[(x + y + i) % RANKS.length]);
+				System.out.println();
+			}
+			System.out.println("5 3 DOWN");
+		}
+		return sum;
+	}
+
+	private static long current(byte[] in, int turns) throws IOException
+	{
+		long sum = 0;
+		Protocol io = new Protocol(new ByteArrayInputStream(in), System.out);
+		byte[] board = new byte[4*11];
+		for (int i = 0; i < turns; i++)
+		{
+			io.readResult();
+			sum += io.x + io.y + io.dir;
+			io.skipLines(10);
+			for (int y = 0; y < 4; y++)
+			{
+				for (int x = 0; x < 10; x++)
+					board[y*11+x] = (byte)RANKS[(x + y + i) % RANKS.length];
+				board[y*11+10] = '\n';
+			}
+			io.write(board, 0, board.length);
+			io.println("5 3 DOWN");
+			io.flush();
+		}
+		return sum;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int turns = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		byte[] in = input(turns);
+		long sum = 0;
+
+		// the first round warms up the JIT
+		for (int i=0;i<3;i++)
+		{
+			long time = System.nanoTime();
+			sum += old(in, turns);
+			long oldTime = System.nanoTime() - time;
+			time = System.nanoTime();
+			sum += current(in, turns);
+			long newTime = System.nanoTime() - time;
+			System.err.printf("old %6.2f us/turn   new %6.2f us/turn%n",
+				oldTime / 1e3 / turns, newTime / 1e3 / turns);
+		}
+		if (sum == 0)
+			System.err.println("no results read");
+	}
+}
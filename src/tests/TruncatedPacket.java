@@ -0,0 +1,93 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.cjmalloy.stratego.server.shared.Connection;
+import com.cjmalloy.stratego.server.shared.Message;
+
+// A string message whose length runs past the end of its packet
+// must be refused at once.  The reader used to add the -1 of an
+// empty packet to its index and loop about 2^32 times on the
+// reactor thread.  Exits with 1 if any packet is not refused.
+//
+//	java -cp <classes> TruncatedPacket
+
+public class TruncatedPacket extends Connection
+{
+	private String result = null;
+
+	public boolean connected()
+	{
+		return true;
+	}
+
+	protected boolean recieve(int type, DataInputStream packet)
+	{
+		try
+		{
+			int len = packet.readInt();
+			result = "read " + decode(len, packet).length() + " bytes";
+		}
+		catch (EOFException e)
+		{
+			result = null;
+		}
+		catch (IOException e)
+		{
+			result = e.toString();
+		}
+		return true;
+	}
+
+	// a CMD packet that says it carries len bytes but has only body
+	private boolean check(String name, int len, int body)
+	{
+		ByteBuffer bb = ByteBuffer.allocate(8 + body);
+		bb.putInt(Message.CMD.ordinal());
+		bb.putInt(len);
+		for (int i=0;i<body;i++)
+			bb.put((byte)'x');
+		bb.flip();
+
+		result = "not read";
+		long time = System.nanoTime();
+		dispatch(bb);
+		time = System.nanoTime() - time;
+
+		boolean ok = result == null && time < 1000000000L;
+		System.out.printf("%-10s %-4s %8.3f ms %s%n", name,
+			ok ? "ok" : "FAIL", time / 1e6, result == null ? "" : result);
+		return ok;
+	}
+
+	public static void main(String[] args)
+	{
+		TruncatedPacket conn = new TruncatedPacket();
+		boolean ok = true;
+		ok &= conn.check("truncated", 100, 10);
+		ok &= conn.check("empty", 100, 0);
+		ok &= conn.check("negative", -1, 10);
+		ok &= conn.check("huge", Integer.MAX_VALUE, 10);
+		if (!ok)
+			System.exit(1);
+	}
+}